@@ -0,0 +1,49 @@
+package com.laamella.sout.benchmarks;
+
+import com.laamella.sout.SoutTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How much compiling typed templates helps,
+ * compared to interpreting the same typed templates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompiledBenchmark {
+    @Param({"flat", "nested"})
+    public String template;
+
+    @Param({"pojo", "record"})
+    public String model;
+
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    private SoutTemplate soutTemplate;
+    private Object data;
+    private StringWriter output;
+
+    @Setup
+    public void setup() {
+        var configuration = Templates.configuration();
+        configuration.setCompiled(compiled);
+        data = Models.create(model);
+        soutTemplate = new SoutTemplate(new StringReader(Templates.text(template)), configuration, data.getClass());
+        output = new StringWriter();
+    }
+
+    @Benchmark
+    public int render() {
+        output.getBuffer().setLength(0);
+        soutTemplate.render(data, output);
+        return output.getBuffer().length();
+    }
+}
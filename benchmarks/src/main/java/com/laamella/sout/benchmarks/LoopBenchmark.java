@@ -0,0 +1,49 @@
+package com.laamella.sout.benchmarks;
+
+import com.laamella.sout.SoutTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loops over large primitive arrays, like the data points of a chart.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopBenchmark {
+    private static final int SIZE = 10_000;
+
+    @Param({"int", "long", "double", "object"})
+    public String elementType;
+
+    private SoutTemplate template;
+    private Object data;
+    private StringWriter output;
+
+    @Setup
+    public void setup() {
+        template = Templates.parse("[{|{}|,}]");
+        var random = new Random(42);
+        data = switch (elementType) {
+            case "int" -> random.ints(SIZE).toArray();
+            case "long" -> random.longs(SIZE).toArray();
+            case "double" -> random.doubles(SIZE).toArray();
+            case "object" -> random.ints(SIZE).boxed().toArray();
+            default -> throw new IllegalArgumentException(elementType);
+        };
+        output = new StringWriter();
+    }
+
+    @Benchmark
+    public int render() {
+        output.getBuffer().setLength(0);
+        template.render(data, output);
+        return output.getBuffer().length();
+    }
+}
@@ -0,0 +1,195 @@
+package com.laamella.sout.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The same data, shaped as POJOs, records, maps and functions.
+ * Every shape has: name, age, city, a chain of five "next"s ending in a "value",
+ * and a list of items that each have a name and a list of details with a kind and a price.
+ */
+final class Models {
+    static final int ITEMS = 20;
+    static final int DETAILS = 3;
+    static final int CHAIN = 5;
+
+    private Models() {
+    }
+
+    static Object create(String kind) {
+        return switch (kind) {
+            case "pojo" -> pojo();
+            case "record" -> record();
+            case "map" -> map();
+            case "function" -> function();
+            default -> throw new IllegalArgumentException(kind);
+        };
+    }
+
+    // POJOs
+
+    static class PojoRoot {
+        final String name = "Piet";
+        final int age = 42;
+        final String city = "Amsterdam";
+        PojoNode chain;
+        final List<PojoItem> items = new ArrayList<>();
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    static class PojoNode {
+        final PojoNode next;
+        final int value;
+
+        PojoNode(PojoNode next, int value) {
+            this.next = next;
+            this.value = value;
+        }
+    }
+
+    static class PojoItem {
+        private final String name;
+        private final List<PojoDetail> details = new ArrayList<>();
+
+        PojoItem(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<PojoDetail> getDetails() {
+            return details;
+        }
+    }
+
+    static class PojoDetail {
+        private final String kind;
+        private final double price;
+
+        PojoDetail(String kind, double price) {
+            this.kind = kind;
+            this.price = price;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+    }
+
+    static PojoRoot pojo() {
+        var root = new PojoRoot();
+        PojoNode node = null;
+        for (int i = 0; i <= CHAIN; i++) {
+            node = new PojoNode(node, i);
+        }
+        root.chain = node;
+        for (int i = 0; i < ITEMS; i++) {
+            var item = new PojoItem("item" + i);
+            for (int j = 0; j < DETAILS; j++) {
+                item.details.add(new PojoDetail("kind" + j, i * 1.5 + j));
+            }
+            root.items.add(item);
+        }
+        return root;
+    }
+
+    // Records
+
+    record RecordRoot(String name, int age, String city, RecordNode chain, List<RecordItem> items) {
+    }
+
+    record RecordNode(RecordNode next, int value) {
+    }
+
+    record RecordItem(String name, List<RecordDetail> details) {
+    }
+
+    record RecordDetail(String kind, double price) {
+    }
+
+    static RecordRoot record() {
+        RecordNode node = null;
+        for (int i = 0; i <= CHAIN; i++) {
+            node = new RecordNode(node, i);
+        }
+        var items = new ArrayList<RecordItem>();
+        for (int i = 0; i < ITEMS; i++) {
+            var details = new ArrayList<RecordDetail>();
+            for (int j = 0; j < DETAILS; j++) {
+                details.add(new RecordDetail("kind" + j, i * 1.5 + j));
+            }
+            items.add(new RecordItem("item" + i, details));
+        }
+        return new RecordRoot("Piet", 42, "Amsterdam", node, items);
+    }
+
+    // Maps
+
+    static Map<String, Object> map() {
+        var root = new HashMap<String, Object>();
+        root.put("name", "Piet");
+        root.put("age", 42);
+        root.put("city", "Amsterdam");
+        Map<String, Object> node = null;
+        for (int i = 0; i <= CHAIN; i++) {
+            var next = new HashMap<String, Object>();
+            next.put("next", node);
+            next.put("value", i);
+            node = next;
+        }
+        root.put("chain", node);
+        var items = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < ITEMS; i++) {
+            var details = new ArrayList<Map<String, Object>>();
+            for (int j = 0; j < DETAILS; j++) {
+                details.add(Map.of("kind", "kind" + j, "price", i * 1.5 + j));
+            }
+            items.add(Map.of("name", "item" + i, "details", details));
+        }
+        root.put("items", items);
+        return root;
+    }
+
+    // Functions
+
+    static Function<String, Object> function() {
+        Function<String, Object> node = null;
+        for (int i = 0; i <= CHAIN; i++) {
+            var next = node;
+            var value = i;
+            node = name -> name.equals("next") ? next : value;
+        }
+        var chain = node;
+        var items = new ArrayList<Function<String, Object>>();
+        for (int i = 0; i < ITEMS; i++) {
+            var details = new ArrayList<Function<String, Object>>();
+            for (int j = 0; j < DETAILS; j++) {
+                var kind = "kind" + j;
+                var price = i * 1.5 + j;
+                details.add(name -> name.equals("kind") ? kind : price);
+            }
+            var itemName = "item" + i;
+            items.add(name -> name.equals("name") ? itemName : details);
+        }
+        return name -> switch (name) {
+            case "name" -> "Piet";
+            case "age" -> 42;
+            case "city" -> "Amsterdam";
+            case "chain" -> chain;
+            case "items" -> items;
+            default -> null;
+        };
+    }
+}
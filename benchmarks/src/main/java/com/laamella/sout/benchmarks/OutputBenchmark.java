@@ -0,0 +1,70 @@
+package com.laamella.sout.benchmarks;
+
+import com.laamella.sout.SoutTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same render to the different kinds of output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+    private SoutTemplate template;
+    private Object data;
+    private StringWriter stringWriter;
+    private ByteArrayOutputStream bytes;
+
+    @Setup
+    public void setup() {
+        template = Templates.parse(Templates.NESTED + Templates.FLAT);
+        data = Models.create("pojo");
+        stringWriter = new StringWriter();
+        bytes = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public int stringWriter() {
+        stringWriter.getBuffer().setLength(0);
+        template.render(data, stringWriter);
+        return stringWriter.getBuffer().length();
+    }
+
+    @Benchmark
+    public int renderToString() {
+        return template.renderToString(data).length();
+    }
+
+    @Benchmark
+    public int newStringWriter() {
+        var writer = new StringWriter();
+        template.render(data, writer);
+        return writer.toString().length();
+    }
+
+    @Benchmark
+    public int outputStreamWriter() throws IOException {
+        bytes.reset();
+        var writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        template.render(data, writer);
+        writer.flush();
+        return bytes.size();
+    }
+
+    @Benchmark
+    public int outputStream() {
+        bytes.reset();
+        template.render(data, bytes, StandardCharsets.UTF_8);
+        return bytes.size();
+    }
+}
@@ -0,0 +1,35 @@
+package com.laamella.sout.benchmarks;
+
+import com.laamella.sout.SoutTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How fast templates are parsed, from a few hundred characters to a few megabytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"small", "large"})
+    public String size;
+
+    private String text;
+
+    @Setup
+    public void setup() {
+        var small = Templates.FLAT + Templates.DOTTED + Templates.NESTED;
+        // Roughly 4MB of template, most of it plain text like a generated config file.
+        text = size.equals("small") ? small : (small + "Some plain configuration text without any names in it at all.\n".repeat(40)).repeat(600);
+    }
+
+    @Benchmark
+    public SoutTemplate parse() {
+        return new SoutTemplate(new StringReader(text), Templates.configuration());
+    }
+}
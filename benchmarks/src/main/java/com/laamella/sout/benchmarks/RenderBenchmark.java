@@ -0,0 +1,43 @@
+package com.laamella.sout.benchmarks;
+
+import com.laamella.sout.SoutTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How fast the same data renders through flat, deeply dotted and nested templates,
+ * when it is stored in POJOs, records, maps or functions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"flat", "dotted", "nested"})
+    public String template;
+
+    @Param({"pojo", "record", "map", "function"})
+    public String model;
+
+    private SoutTemplate soutTemplate;
+    private Object data;
+    private StringWriter output;
+
+    @Setup
+    public void setup() {
+        soutTemplate = Templates.parse(Templates.text(template));
+        data = Models.create(model);
+        output = new StringWriter();
+    }
+
+    @Benchmark
+    public int render() {
+        output.getBuffer().setLength(0);
+        soutTemplate.render(data, output);
+        return output.getBuffer().length();
+    }
+}
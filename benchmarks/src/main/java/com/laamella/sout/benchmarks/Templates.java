@@ -0,0 +1,35 @@
+package com.laamella.sout.benchmarks;
+
+import com.laamella.sout.SoutConfiguration;
+import com.laamella.sout.SoutTemplate;
+
+import java.io.StringReader;
+
+/**
+ * The templates that are rendered in the benchmarks.
+ */
+final class Templates {
+    static final String FLAT = "Hello {name}, you are {age} years old and you live in {city}.\n".repeat(10);
+    static final String DOTTED = "{chain.value} {chain.next.value} {chain.next.next.next.value} {chain.next.next.next.next.next.value}\n".repeat(10);
+    static final String NESTED = "<ul>{items|\n<li>{name}: {details|{kind} costs {price}|, }</li>}\n</ul>";
+
+    private Templates() {
+    }
+
+    static SoutConfiguration configuration() {
+        return new SoutConfiguration('{', '|', '}', '\\', null, null, null);
+    }
+
+    static String text(String kind) {
+        return switch (kind) {
+            case "flat" -> FLAT;
+            case "dotted" -> DOTTED;
+            case "nested" -> NESTED;
+            default -> throw new IllegalArgumentException(kind);
+        };
+    }
+
+    static SoutTemplate parse(String text) {
+        return new SoutTemplate(new StringReader(text), configuration());
+    }
+}
@@ -0,0 +1,148 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The Writer for {@link SoutTemplate#renderAsync(Object, Writer)}.
+ * <p>
+ * Rendering never waits for an async value. Instead, the renderer leaves a hole in the output with {@link #await},
+ * and carries on with the rest of the template.
+ * Afterwards, {@link #writeTo(Writer)} writes the output in order,
+ * filling in every hole when its value has completed and the output before it has been written.
+ * Holes are filled in one at a time, so rendering never happens on two threads at once.
+ * Not thread safe.
+ */
+final class AsyncWriter extends OutputSink {
+    /**
+     * Renders the part of the template that waited for an async value, once it is there.
+     */
+    interface Continuation {
+        void render(Object value, Writer outputWriter) throws IOException;
+    }
+
+    private static final class Hole {
+        final CompletableFuture<?> value;
+        final Position position;
+        final Continuation continuation;
+
+        Hole(CompletableFuture<?> value, Position position, Continuation continuation) {
+            this.value = value;
+            this.position = position;
+            this.continuation = continuation;
+        }
+    }
+
+    /**
+     * Strings and holes, in output order.
+     */
+    private final Deque<Object> parts = new ArrayDeque<>();
+    private final StringBuilder segment = new StringBuilder();
+
+    @Override
+    public void write(int c) {
+        segment.append((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        segment.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        segment.append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+        segment.append(csq);
+        return this;
+    }
+
+    /**
+     * Leave a hole in the output that continuation fills in when value completes.
+     */
+    void await(CompletionStage<?> value, Position position, Continuation continuation) {
+        endSegment();
+        parts.add(new Hole(value.toCompletableFuture(), position, continuation));
+    }
+
+    private void endSegment() {
+        if (segment.length() > 0) {
+            parts.add(segment.toString());
+            segment.setLength(0);
+        }
+    }
+
+    /**
+     * Write everything to outputWriter, waiting for the holes in order.
+     *
+     * @return a stage that completes when everything has been written.
+     */
+    CompletionStage<Void> writeTo(Writer outputWriter) {
+        endSegment();
+        var done = new CompletableFuture<Void>();
+        writeParts(outputWriter, done);
+        return done;
+    }
+
+    /**
+     * Write parts up to the first hole whose value hasn't completed, and continue when it does.
+     */
+    private void writeParts(Writer outputWriter, CompletableFuture<Void> done) {
+        try {
+            while (!parts.isEmpty()) {
+                var part = parts.peekFirst();
+                if (part instanceof String) {
+                    outputWriter.write((String) part);
+                    parts.removeFirst();
+                    continue;
+                }
+                var hole = (Hole) part;
+                if (!hole.value.isDone()) {
+                    hole.value.whenComplete((value, throwable) -> writeParts(outputWriter, done));
+                    return;
+                }
+                parts.removeFirst();
+                fill(hole);
+            }
+            done.complete(null);
+        } catch (IOException e) {
+            done.completeExceptionally(new SoutException(e, "Writing the output failed."));
+        } catch (Throwable t) {
+            done.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Render the hole, and put what it rendered, which may contain more holes, in its place.
+     */
+    private void fill(Hole hole) throws IOException {
+        Object value;
+        try {
+            value = hole.value.join();
+        } catch (CompletionException e) {
+            throw new SoutException(hole.position, e.getCause());
+        }
+        var holeWriter = new AsyncWriter();
+        hole.continuation.render(value, holeWriter);
+        holeWriter.endSegment();
+        while (!holeWriter.parts.isEmpty()) {
+            parts.addFirst(holeWriter.parts.removeLast());
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,62 +1,229 @@
 package com.laamella.sout;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * The standard collection renderer. Takes a variety of parts. See README.md.
+ * <p>
+ * Arrays and random access lists are looped over by index, without an iterator.
+ * The elements of primitive arrays are passed on unboxed,
+ * see {@link Renderer#renderArrayElement(Object, int, Scope, Writer)}.
+ * When there is an executor for parallel loops, large indexed loops are rendered in parallel.
  */
-class CollectionRenderer implements CustomTypeRenderer {
+class CollectionRenderer {
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+
     private final IteratorFactory iteratorFactory;
+    private final NestingDispatch nestingDispatch;
+    private final RenderMetrics metrics;
+    /**
+     * null when loops are never rendered in parallel.
+     */
+    private final Executor parallelLoopExecutor;
+    private final int parallelLoopMinimumSize;
+    /**
+     * The parts of the last loop, which are nearly always the same parts.
+     */
+    private LoopParts lastLoopParts;
 
-    CollectionRenderer(IteratorFactory iteratorFactory) {
+    CollectionRenderer(IteratorFactory iteratorFactory, NestingDispatch nestingDispatch, RenderMetrics metrics, Executor parallelLoopExecutor, int parallelLoopMinimumSize) {
         this.iteratorFactory = iteratorFactory;
+        this.nestingDispatch = nestingDispatch;
+        this.metrics = metrics;
+        this.parallelLoopExecutor = parallelLoopExecutor;
+        this.parallelLoopMinimumSize = parallelLoopMinimumSize;
     }
 
-    @Override
-    public boolean render(String name, Renderable[] parts, Object model, Scope scope, Object parentModel, Scope parentScope, Position position, Writer outputWriter) {
-
-        var iterator = iteratorFactory.toIterator(model, parentScope, position);
+    /**
+     * Like {@link CustomTypeRenderer#render}, with the decision of {@link NestingDispatch} for model.
+     */
+    boolean render(NestingDispatch.Decision decision, String name, Renderable[] parts, Object model, Scope scope, Object parentModel, Scope parentScope, Position position, Writer outputWriter) {
+        Iterator<?> iterator = null;
+        if (!decision.customIteratorFactoryDeclines) {
+            iterator = iteratorFactory.toCustomIterator(model, parentScope, position);
+            if (iterator == null) {
+                nestingDispatch.customIteratorFactoryDeclined(decision);
+            }
+        }
         if (iterator == null) {
-            return false;
+            switch (decision.kind) {
+                case INDEXED -> {
+                    var size = model instanceof Object[] ? ((Object[]) model).length
+                            : model instanceof List ? ((List<?>) model).size()
+                            : PrimitiveArrays.length(model);
+                    if (size > 0) {
+                        renderIndexed(model, size, loopParts(name, parts, position), scope, parentModel, position, outputWriter);
+                    }
+                    metrics.looped(position, size);
+                    return true;
+                }
+                case ITERATED, NULL -> iterator = iteratorFactory.toStandardIterator(model, position);
+                default -> {
+                    return false;
+                }
+            }
         }
         if (!iterator.hasNext()) {
             // Empty collection, nothing to do.
+            metrics.looped(position, 0);
             return true;
         }
-        Renderable mainPart, leadIn = null, separatorPart = null, leadOut = null;
-        switch (parts.length) {
-            case 1 -> {
-                mainPart = parts[0];
+        var iterations = renderIterator(iterator, loopParts(name, parts, position), scope, parentModel, outputWriter);
+        metrics.looped(position, iterations);
+        return true;
+    }
+
+    private LoopParts loopParts(String name, Renderable[] parts, Position position) {
+        var loopParts = lastLoopParts;
+        if (loopParts == null || loopParts.parts != parts) {
+            loopParts = new LoopParts(name, parts, position);
+            // Racing threads may overwrite each other's LoopParts, which is harmless.
+            lastLoopParts = loopParts;
+        }
+        return loopParts;
+    }
+
+    /**
+     * @return the amount of elements.
+     */
+    private static long renderIterator(Iterator<?> iterator, LoopParts loopParts, Scope scope, Object parentModel, Writer outputWriter) {
+        if (loopParts.leadIn != null) {
+            loopParts.leadIn.render(parentModel, scope, outputWriter);
+        }
+        var iterations = 0L;
+        while (iterator.hasNext()) {
+            var listElement = iterator.next();
+            if (iterations > 0 && loopParts.separatorPart != null) {
+                loopParts.separatorPart.render(listElement, scope, outputWriter);
             }
-            case 2 -> {
-                mainPart = parts[0];
-                separatorPart = parts[1];
+            iterations++;
+            loopParts.mainPart.render(listElement, scope, outputWriter);
+        }
+        if (loopParts.leadOut != null) {
+            loopParts.leadOut.render(parentModel, scope, outputWriter);
+        }
+        return iterations;
+    }
+
+    /**
+     * @param elements an Object[], a random access List, or a primitive array.
+     */
+    private void renderIndexed(Object elements, int size, LoopParts loopParts, Scope scope, Object parentModel, Position position, Writer outputWriter) {
+        if (loopParts.leadIn != null) {
+            loopParts.leadIn.render(parentModel, scope, outputWriter);
+        }
+        // A parallel loop inside a parallel loop or a concurrent section is rendered serially.
+        // So is a loop rendered by renderAsync, since async elements need the AsyncWriter, which buffers can't stand in for.
+        if (parallelLoopExecutor != null && size >= parallelLoopMinimumSize && !scope.isRenderedConcurrently()
+                && !(outputWriter instanceof AsyncWriter)) {
+            renderInParallel(elements, size, loopParts, scope, position, outputWriter);
+        } else {
+            renderElements(elements, 0, size, loopParts, scope, outputWriter);
+        }
+        if (loopParts.leadOut != null) {
+            loopParts.leadOut.render(parentModel, scope, outputWriter);
+        }
+    }
+
+    /**
+     * Render elements "from" up to "to". Every element but the first of the whole loop gets a separator in front of it,
+     * so the chunks of a parallel loop can be concatenated as they are.
+     */
+    private static void renderElements(Object elements, int from, int to, LoopParts loopParts, Scope scope, Writer outputWriter) {
+        if (elements instanceof Object[] || elements instanceof List) {
+            for (int i = from; i < to; i++) {
+                var listElement = elements instanceof Object[] ? ((Object[]) elements)[i] : ((List<?>) elements).get(i);
+                if (i > 0 && loopParts.separatorPart != null) {
+                    loopParts.separatorPart.render(listElement, scope, outputWriter);
+                }
+                loopParts.mainPart.render(listElement, scope, outputWriter);
             }
-            case 4 -> {
-                leadIn = parts[0];
-                mainPart = parts[1];
-                separatorPart = parts[2];
-                leadOut = parts[3];
+        } else {
+            for (int i = from; i < to; i++) {
+                if (i > 0 && loopParts.separatorPart != null) {
+                    renderArrayElement(loopParts.separatorPart, elements, i, scope, outputWriter);
+                }
+                renderArrayElement(loopParts.mainPart, elements, i, scope, outputWriter);
             }
-            default -> throw new SoutException(position, "Wrong amount of parts (%d) for rendering loop \"%s\".", parts.length, name);
         }
+    }
 
-        if (leadIn != null) {
-            leadIn.render(parentModel, scope, outputWriter);
+    /**
+     * Split the elements in chunks, render every chunk to its own buffer on the executor,
+     * and write the buffers to the output in order.
+     * The scopes are frozen meanwhile, so that the threads can't change them under each other's feet.
+     */
+    private void renderInParallel(Object elements, int size, LoopParts loopParts, Scope scope, Position position, Writer outputWriter) {
+        var chunkCount = Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR;
+        var chunkSize = (size + chunkCount - 1) / chunkCount;
+        var buffers = new ConcurrentBuffers(parallelLoopExecutor);
+        var chunks = new ArrayList<CompletableFuture<StringWriter>>();
+        var frozenAlready = scope.freeze();
+        try {
+            for (int from = 0; from < size; from += chunkSize) {
+                int chunkFrom = from;
+                int chunkTo = Math.min(size, from + chunkSize);
+                chunks.add(buffers.render(buffer -> renderElements(elements, chunkFrom, chunkTo, loopParts, scope, buffer)));
+            }
+            for (var chunk : chunks) {
+                outputWriter.write(ConcurrentBuffers.join(chunk).toString());
+            }
+        } catch (IOException e) {
+            throw new SoutException(position, e);
+        } finally {
+            buffers.cancelAndWait();
+            scope.thaw(frozenAlready);
         }
+    }
 
-        var printSeparator = false;
-        while (iterator.hasNext()) {
-            var listElement = iterator.next();
-            if (printSeparator && separatorPart != null) {
-                separatorPart.render(listElement, scope, outputWriter);
-            }
-            printSeparator = true;
-            mainPart.render(listElement, scope, outputWriter);
+    private static void renderArrayElement(Renderable part, Object array, int index, Scope scope, Writer outputWriter) {
+        if (part instanceof Renderer) {
+            ((Renderer) part).renderArrayElement(array, index, scope, outputWriter);
+        } else {
+            part.render(PrimitiveArrays.get(array, index), scope, outputWriter);
         }
-        if (leadOut != null) {
-            leadOut.render(parentModel, scope, outputWriter);
+    }
+
+    /**
+     * The parts of a loop, sorted out by what they are for.
+     */
+    private static final class LoopParts {
+        final Renderable[] parts;
+        final Renderable mainPart;
+        final Renderable leadIn;
+        final Renderable separatorPart;
+        final Renderable leadOut;
+
+        LoopParts(String name, Renderable[] parts, Position position) {
+            this.parts = parts;
+            switch (parts.length) {
+                case 1 -> {
+                    mainPart = parts[0];
+                    leadIn = null;
+                    separatorPart = null;
+                    leadOut = null;
+                }
+                case 2 -> {
+                    mainPart = parts[0];
+                    leadIn = null;
+                    separatorPart = parts[1];
+                    leadOut = null;
+                }
+                case 4 -> {
+                    leadIn = parts[0];
+                    mainPart = parts[1];
+                    separatorPart = parts[2];
+                    leadOut = parts[3];
+                }
+                default -> throw new SoutException(position, "Wrong amount of parts (%d) for rendering loop \"%s\".", parts.length, name);
+            }
         }
-        return true;
     }
 }
@@ -0,0 +1,38 @@
+package com.laamella.sout;
+
+import java.util.ArrayList;
+
+/**
+ * A name as it was written in the template, like "abc.def", split into its simple names once while parsing.
+ */
+final class ComplexName {
+    final String text;
+    /**
+     * The simple names to resolve one after the other.
+     * Blank names are left out, since they resolve to the model itself.
+     */
+    final String[] simpleNames;
+
+    ComplexName(String text) {
+        this.text = text;
+        var simpleNames = new ArrayList<String>();
+        int start = 0;
+        while (true) {
+            int dotIndex = text.indexOf('.', start);
+            var simpleName = dotIndex < 0 ? text.substring(start) : text.substring(start, dotIndex);
+            if (!simpleName.isBlank()) {
+                simpleNames.add(simpleName);
+            }
+            if (dotIndex < 0) {
+                break;
+            }
+            start = dotIndex + 1;
+        }
+        this.simpleNames = simpleNames.toArray(new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,108 @@
+package com.laamella.sout;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Renders pieces of output into buffers on an executor, so that they can be written to the real output in order later.
+ * One instance is used for one parallel render, and {@link #cancelAndWait()} ends it.
+ */
+final class ConcurrentBuffers {
+    private final Executor executor;
+    private final List<CompletableFuture<StringWriter>> buffers = new ArrayList<>();
+    // Guarded by "this".
+    private int running = 0;
+    // Guarded by "this".
+    private boolean closed = false;
+
+    ConcurrentBuffers(Executor executor) {
+        this.executor = executor;
+    }
+
+    CompletableFuture<StringWriter> render(Consumer<Writer> rendering) {
+        var buffer = new CompletableFuture<StringWriter>();
+        buffers.add(buffer);
+        executor.execute(() -> {
+            if (!start()) {
+                return;
+            }
+            try {
+                var output = new StringWriter();
+                rendering.accept(output);
+                buffer.complete(output);
+            } catch (Throwable t) {
+                buffer.completeExceptionally(t);
+            } finally {
+                finish();
+            }
+        });
+        return buffer;
+    }
+
+    /**
+     * @return whether the task can run. Not after {@link #cancelAndWait()}.
+     */
+    private synchronized boolean start() {
+        if (closed) {
+            return false;
+        }
+        running++;
+        return true;
+    }
+
+    private synchronized void finish() {
+        running--;
+        if (running == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the rendered buffer. The exception that stopped the rendering is thrown as it is.
+     */
+    static StringWriter join(CompletableFuture<StringWriter> buffer) {
+        try {
+            return buffer.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stop the buffers that haven't started rendering, and wait until the ones that have are done.
+     * Waiting is on the tasks themselves, not on their buffers, so an exception in one buffer doesn't cut it short.
+     * After this, nothing is rendering anymore, and scopes can be thawed.
+     */
+    void cancelAndWait() {
+        var interrupted = false;
+        synchronized (this) {
+            closed = true;
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Returning early would let running tasks see the scopes change, so keep waiting.
+                    interrupted = true;
+                }
+            }
+        }
+        for (var buffer : buffers) {
+            buffer.cancel(false);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
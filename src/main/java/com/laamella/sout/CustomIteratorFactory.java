@@ -14,4 +14,12 @@ public interface CustomIteratorFactory {
      * @return an {@link Iterator} for model, or null if this factory doesn't handle this kind of model.
      */
     Iterator<?> toIterator(Object model, Scope scope, Position position);
+
+    /**
+     * @return true when {@link #toIterator} returning null for a model means that it returns null for every model of that class.
+     * Nestings then stop offering models of that class to this factory. False by default.
+     */
+    default boolean dependsOnlyOnClass() {
+        return false;
+    }
 }
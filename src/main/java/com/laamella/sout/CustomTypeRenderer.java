@@ -19,4 +19,12 @@ public interface CustomTypeRenderer {
      * @return true if this {@link CustomTypeRenderer} has written the type and no further handling is wanted.
      */
     boolean render(String name, Renderable[] parts, Object model, Scope scope, Object parentModel, Scope parentScope, Position position, Writer outputWriter) throws IOException;
+
+    /**
+     * @return true when {@link #render} returning false for a model means that it returns false for every model of that class.
+     * Nestings then stop offering models of that class to this renderer. False by default.
+     */
+    default boolean dependsOnlyOnClass() {
+        return false;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * A Writer that encodes to an OutputStream, like an OutputStreamWriter,
+ * but that can also take text that has been encoded already.
+ * That way the static text of a template is only encoded once, and only the values from the model are encoded while rendering.
+ * Not thread safe, and no locking.
+ */
+final class EncodingWriter extends OutputSink {
+    /**
+     * Charsets for which encoding pieces of text separately gives the same bytes as encoding them together.
+     */
+    private static final Set<Charset> STATELESS_CHARSETS = Set.of(
+            StandardCharsets.UTF_8, StandardCharsets.US_ASCII, StandardCharsets.ISO_8859_1,
+            StandardCharsets.UTF_16BE, StandardCharsets.UTF_16LE);
+
+    private final OutputStream outputStream;
+    final Charset charset;
+    /**
+     * Whether text can be encoded before this writer sees it.
+     */
+    final boolean acceptsEncodedText;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars = CharBuffer.allocate(1024);
+    private final ByteBuffer bytes = ByteBuffer.allocate(8192);
+    private long written = 0;
+
+    EncodingWriter(OutputStream outputStream, Charset charset) {
+        this.outputStream = outputStream;
+        this.charset = charset;
+        this.acceptsEncodedText = STATELESS_CHARSETS.contains(charset);
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Write text that was encoded with {@link #charset} already. Only when {@link #acceptsEncodedText}.
+     */
+    void writeEncoded(byte[] encoded) throws IOException {
+        encodeChars(false);
+        if (chars.position() > 0) {
+            // A lone high surrogate is waiting for its other half, which isn't coming.
+            encodeChars(true);
+            encoder.reset();
+        }
+        if (encoded.length > bytes.remaining()) {
+            writeBytes();
+            if (encoded.length > bytes.remaining()) {
+                outputStream.write(encoded);
+                written += encoded.length;
+                return;
+            }
+        }
+        bytes.put(encoded);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (!chars.hasRemaining()) {
+            encodeChars(false);
+        }
+        chars.put((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!chars.hasRemaining()) {
+                encodeChars(false);
+            }
+            int n = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!chars.hasRemaining()) {
+                encodeChars(false);
+            }
+            int n = Math.min(len, chars.remaining());
+            chars.put(str, off, off + n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        var s = String.valueOf(csq);
+        write(s, 0, s.length());
+        return this;
+    }
+
+    /**
+     * Encode and write everything, but leave the OutputStream open and unflushed.
+     */
+    void finish() throws IOException {
+        encodeChars(true);
+        while (encoder.flush(bytes).isOverflow()) {
+            writeBytes();
+        }
+        encoder.reset();
+        writeBytes();
+    }
+
+    /**
+     * @return how many bytes have been written to the OutputStream.
+     */
+    long bytesWritten() {
+        return written;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encodeChars(false);
+        writeBytes();
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private void encodeChars(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                writeBytes();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+        chars.compact();
+    }
+
+    private void writeBytes() throws IOException {
+        if (bytes.position() > 0) {
+            outputStream.write(bytes.array(), 0, bytes.position());
+            written += bytes.position();
+            bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.laamella.sout;
+
+/**
+ * The Java Flight Recorder events of sout.
+ * While no recording is running, {@link EventKind#isEnabled()} is false and no events are made at all.
+ * The jdk.jfr module is optional: without it, the events are {@link EventKind#NONE}, which records nothing.
+ */
+final class FlightRecorderEvents {
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    static final EventKind PARSE = AVAILABLE ? JfrEventKind.PARSE : EventKind.NONE;
+    static final EventKind RENDER = AVAILABLE ? JfrEventKind.RENDER : EventKind.NONE;
+    static final EventKind SLOW_NAME = AVAILABLE ? JfrEventKind.SLOW_NAME : EventKind.NONE;
+
+    private FlightRecorderEvents() {
+    }
+
+    static int countNodes(Renderable renderable) {
+        var count = 1;
+        if (renderable instanceof ContainerRenderer) {
+            for (var child : ((ContainerRenderer) renderable).children) {
+                count += countNodes(child);
+            }
+        } else if (renderable instanceof NestedRenderer) {
+            for (var part : ((NestedRenderer) renderable).parts) {
+                count += countNodes(part);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * One type of event. This class itself records nothing, {@link JfrEventKind} does.
+     */
+    static class EventKind {
+        static final EventKind NONE = new EventKind();
+
+        /**
+         * @return whether a recording wants these events. When false, there's no need to call {@link #begin()}.
+         */
+        boolean isEnabled() {
+            return false;
+        }
+
+        /**
+         * @return a started event, or null when no recording wants these events.
+         */
+        Object begin() {
+            return null;
+        }
+
+        /**
+         * Ends the event and commits it with the values for its fields, in the order they were declared.
+         *
+         * @param event what {@link #begin()} returned. Nothing happens when it is null.
+         */
+        void finish(Object event, Object... values) {
+        }
+    }
+}
@@ -18,10 +18,32 @@ class IteratorFactory implements CustomIteratorFactory {
 
     @Override
     public Iterator<?> toIterator(Object model, Scope scope, Position position) {
-        Iterator<?> iterator = customIteratorFactory.toIterator(model, scope, position);
+        Iterator<?> iterator = toCustomIterator(model, scope, position);
         if (iterator != null) {
             return iterator;
-        } else if (model == null) {
+        }
+        return toStandardIterator(model, position);
+    }
+
+    /**
+     * @return the dispatch for nestings that use this iterator factory and customTypeRenderer.
+     */
+    NestingDispatch nestingDispatch(CustomTypeRenderer customTypeRenderer) {
+        return new NestingDispatch(customTypeRenderer, customIteratorFactory);
+    }
+
+    /**
+     * @return the iterator that the custom iterator factory makes for model, or null if it doesn't.
+     */
+    Iterator<?> toCustomIterator(Object model, Scope scope, Position position) {
+        return customIteratorFactory.toIterator(model, scope, position);
+    }
+
+    /**
+     * @return an iterator for the JDK type of model, or null if it isn't something that can be iterated.
+     */
+    Iterator<?> toStandardIterator(Object model, Position position) {
+        if (model == null) {
             throw new SoutException(position, "Trying to nest into null.");
         } else if (model instanceof List) {
             return ((List<?>) model).iterator();
@@ -36,7 +58,7 @@ class IteratorFactory implements CustomIteratorFactory {
         } else if (model instanceof short[]) {
             return new ShortArrayIterator((short[]) model);
         } else if (model instanceof int[]) {
-            return stream((int[]) model).boxed().iterator();
+            return new IntArrayIterator((int[]) model);
         } else if (model instanceof long[]) {
             return new LongArrayIterator((long[]) model);
         } else if (model instanceof float[]) {
@@ -155,6 +177,23 @@ class IteratorFactory implements CustomIteratorFactory {
         }
     }
 
+    static class IntArrayIterator implements Iterator<Integer> {
+        final int[] a;
+        int i = 0;
+
+        IntArrayIterator(int[] a) {
+            this.a = a;
+        }
+
+        public boolean hasNext() {
+            return i < a.length;
+        }
+
+        public Integer next() {
+            return a[i++];
+        }
+    }
+
     static class LongArrayIterator implements Iterator<Long> {
         final long[] a;
         int i = 0;
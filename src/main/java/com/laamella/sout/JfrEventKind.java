@@ -0,0 +1,137 @@
+package com.laamella.sout;
+
+import jdk.jfr.AnnotationElement;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventFactory;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.ValueDescriptor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * A type of event that is really recorded by Java Flight Recorder.
+ * This is the only class that uses the jdk.jfr module, so it is only loaded when that module is there.
+ * <p>
+ * When compiling for Java 15, {@link Event} can't be subclassed or have its methods called,
+ * because its superclass is missing from the platform's class descriptions.
+ * So the events are made by an {@link EventFactory}, and their methods are called through method handles,
+ * which the JIT treats like direct calls since they are constants.
+ */
+final class JfrEventKind extends FlightRecorderEvents.EventKind {
+    private static final AnnotationElement CATEGORY = new AnnotationElement(Category.class, new String[]{"sout"});
+    private static final AnnotationElement NO_STACK_TRACE = new AnnotationElement(StackTrace.class, false);
+
+    static final FlightRecorderEvents.EventKind PARSE = new JfrEventKind(List.of(
+            new AnnotationElement(Name.class, "com.laamella.sout.TemplateParse"),
+            new AnnotationElement(Label.class, "Template Parse"),
+            CATEGORY, NO_STACK_TRACE), List.of(
+            field(String.class, "source", "Source", "Where the template came from: its path, its name in a cache, or null"),
+            field(long.class, "characters", "Characters", null),
+            field(int.class, "nodes", "Nodes", "The amount of texts, names, nestings and parts in the template")));
+
+    static final FlightRecorderEvents.EventKind RENDER = new JfrEventKind(List.of(
+            new AnnotationElement(Name.class, "com.laamella.sout.TemplateRender"),
+            new AnnotationElement(Label.class, "Template Render"),
+            CATEGORY, NO_STACK_TRACE), List.of(
+            field(long.class, "templateId", "Template Id", "Numbers the templates in the order they were created"),
+            field(String.class, "source", "Source", null),
+            field(long.class, "characters", "Characters", "-1 when not known"),
+            field(long.class, "bytes", "Bytes", "-1 when not rendered to an OutputStream")));
+
+    /**
+     * Only for names and nestings that take longer than the threshold, which can be set in the recording settings.
+     * Nestings include the time of everything inside them.
+     * Off by default, since it is timed around every name: turn it on in the recording settings.
+     */
+    static final FlightRecorderEvents.EventKind SLOW_NAME = new JfrEventKind(List.of(
+            new AnnotationElement(Name.class, "com.laamella.sout.SlowName"),
+            new AnnotationElement(Label.class, "Slow Name"),
+            new AnnotationElement(Threshold.class, "20 ms"),
+            new AnnotationElement(Enabled.class, false),
+            CATEGORY), List.of(
+            field(String.class, "name", "Name", null),
+            field(String.class, "position", "Position", "row:column in the template")));
+
+    private static final MethodHandle BEGIN = eventMethod("begin", methodType(void.class));
+    private static final MethodHandle END = eventMethod("end", methodType(void.class));
+    private static final MethodHandle SHOULD_COMMIT = eventMethod("shouldCommit", methodType(boolean.class));
+    private static final MethodHandle SET = eventMethod("set", methodType(void.class, int.class, Object.class));
+    private static final MethodHandle COMMIT = eventMethod("commit", methodType(void.class));
+
+    private final EventFactory factory;
+    private final EventType type;
+
+    private JfrEventKind(List<AnnotationElement> annotations, List<ValueDescriptor> fields) {
+        factory = EventFactory.create(annotations, fields);
+        type = factory.getEventType();
+    }
+
+    private static ValueDescriptor field(Class<?> type, String name, String label, String description) {
+        var annotations = description == null
+                ? List.of(new AnnotationElement(Label.class, label))
+                : List.of(new AnnotationElement(Label.class, label), new AnnotationElement(Description.class, description));
+        return new ValueDescriptor(type, name, annotations);
+    }
+
+    private static MethodHandle eventMethod(String name, MethodType type) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Event.class, name, type)
+                    .asType(type.insertParameterTypes(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Override
+    boolean isEnabled() {
+        return type.isEnabled();
+    }
+
+    @Override
+    Object begin() {
+        if (!type.isEnabled()) {
+            return null;
+        }
+        try {
+            var event = factory.newEvent();
+            BEGIN.invokeExact((Object) event);
+            return event;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    void finish(Object event, Object... values) {
+        if (event == null) {
+            return;
+        }
+        try {
+            END.invokeExact(event);
+            if ((boolean) SHOULD_COMMIT.invokeExact(event)) {
+                for (int i = 0; i < values.length; i++) {
+                    SET.invokeExact(event, i, values[i]);
+                }
+                COMMIT.invokeExact(event);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a template file by mapping it into memory and decoding it straight into the buffer of whoever reads it,
+ * so the file is never copied onto the heap as a whole, and there are no buffering layers in between.
+ */
+final class MappedTemplateReader extends Reader {
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private boolean flushed = false;
+
+    MappedTemplateReader(Path path, Charset charset) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        var chars = CharBuffer.wrap(cbuf, off, len);
+        if (bytes.hasRemaining()) {
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+        }
+        if (!bytes.hasRemaining() && !flushed && chars.hasRemaining()) {
+            flushed = decoder.flush(chars).isUnderflow();
+        }
+        int read = chars.position() - off;
+        if (read == 0 && flushed) {
+            return -1;
+        }
+        return read;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,148 @@
+package com.laamella.sout;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Resolves the name of one {@link NameRenderer} or {@link NestedRenderer}.
+ * <p>
+ * A place in the template nearly always sees the same class of model,
+ * so for every simple name in the complex name an inline cache remembers the accessors for the last few classes it saw.
+ * When more classes than that show up, that simple name is megamorphic and always goes through the {@link NameResolver}.
+ * <p>
+ * In a typed template, the {@link TypeBinder} binds simple names to an accessor while parsing,
+ * and those are used without looking at the class of the model at all.
+ */
+final class NameCallSite {
+    static final int MAX_CACHED_CLASSES = 4;
+
+    /**
+     * An immutable list of cached accessors. The final fields make it safe to publish without locking.
+     */
+    private static final class Entry {
+        final Class<?> type;
+        final NameResolver.Accessor accessor;
+        final Entry next;
+        final int size;
+
+        Entry(Class<?> type, NameResolver.Accessor accessor, Entry next) {
+            this.type = type;
+            this.accessor = accessor;
+            this.next = next;
+            this.size = next == null ? 1 : next.size + 1;
+        }
+    }
+
+    final ComplexName name;
+    private final NameResolver nameResolver;
+    private final RenderMetrics metrics;
+    /**
+     * One inline cache per simple name. null when nothing has been cached yet.
+     */
+    private final Entry[] caches;
+    /**
+     * Accessors bound while parsing, per simple name. null when the simple name is resolved at render time.
+     */
+    private final NameResolver.Accessor[] bound;
+    /**
+     * Per simple name, whether a class was missed while its cache was already full.
+     */
+    private final boolean[] overflowed;
+
+    NameCallSite(ComplexName name, NameResolver nameResolver, RenderMetrics metrics) {
+        this.name = name;
+        this.nameResolver = nameResolver;
+        this.metrics = metrics;
+        caches = new Entry[name.simpleNames.length];
+        bound = new NameResolver.Accessor[name.simpleNames.length];
+        overflowed = new boolean[name.simpleNames.length];
+    }
+
+    /**
+     * @return the value of the name on model, or a {@link NameResolver.Failure} if it couldn't be found.
+     */
+    Object resolve(Object model) {
+        var simpleNames = name.simpleNames;
+        var value = model;
+        for (int i = 0; i < simpleNames.length; i++) {
+            if (value == null) {
+                return new NameResolver.Failure(simpleNames[i], null);
+            }
+            var accessor = bound[i];
+            if (accessor == null) {
+                accessor = accessorFor(i, value.getClass());
+            }
+            value = NameResolver.access(accessor, value, simpleNames[i]);
+            if (value instanceof NameResolver.Failure) {
+                return value;
+            }
+            metrics.resolved(accessor.strategy);
+        }
+        return value;
+    }
+
+    /**
+     * Resolves a name of one bound simple name, with the handle of {@link #boundHandle()}
+     * passed in by a compiled container that keeps it as a constant.
+     *
+     * @param model not null.
+     */
+    Object resolveBound(MethodHandle handle, Object model) {
+        Object value;
+        try {
+            value = (Object) handle.invokeExact(model);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            return new NameResolver.Failure(name.simpleNames[0], model, t);
+        }
+        metrics.resolved(bound[0].strategy);
+        return value;
+    }
+
+    private NameResolver.Accessor accessorFor(int index, Class<?> type) {
+        var cache = caches[index];
+        for (var entry = cache; entry != null; entry = entry.next) {
+            if (entry.type == type) {
+                return entry.accessor;
+            }
+        }
+        var accessor = nameResolver.accessorFor(type, name.simpleNames[index]);
+        if (cache == null || cache.size < MAX_CACHED_CLASSES) {
+            // Racing threads may overwrite each other's entry. That only costs another miss later.
+            caches[index] = new Entry(type, accessor, cache);
+        } else {
+            overflowed[index] = true;
+        }
+        return accessor;
+    }
+
+    void bind(int index, NameResolver.Accessor accessor) {
+        bound[index] = accessor;
+    }
+
+    boolean isBound(int index) {
+        return bound[index] != null;
+    }
+
+    /**
+     * @return the field or method handle that this name is bound to, when it is a single simple name, otherwise null.
+     */
+    MethodHandle boundHandle() {
+        if (bound.length != 1 || bound[0] == null) {
+            return null;
+        }
+        return bound[0].handle;
+    }
+
+    /**
+     * @return whether the simple name at index has seen too many classes to cache.
+     */
+    boolean isMegamorphic(int index) {
+        return overflowed[index];
+    }
+
+    @Override
+    public String toString() {
+        return name.text;
+    }
+}
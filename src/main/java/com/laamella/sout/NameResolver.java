@@ -1,133 +1,283 @@
 package com.laamella.sout;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
-import static com.laamella.sout.NameResolver.Result.fail;
-import static com.laamella.sout.NameResolver.Result.succeed;
+import static java.lang.invoke.MethodType.methodType;
 
 /**
  * Tries to go from object to object by evaluating names to fields, getters, maps, ...
+ * <p>
+ * Fields and methods are looked up once per (class, name) and kept as method handles,
+ * so repeated renders over the same model types don't use reflection anymore.
  */
 @SuppressWarnings("unchecked")
 class NameResolver {
 
-    static class Result {
-        final String message;
-        final boolean failed;
-        final Object value;
+    /**
+     * What resolving a name returns when it fails.
+     * The message is only built when it is actually needed, which is when a {@link SoutException} gets thrown.
+     */
+    static final class Failure {
+        final String simpleName;
+        final Object target;
+        /**
+         * What the field or method threw, or null when the name wasn't found.
+         */
+        final Throwable cause;
 
-        private Result(Object value, String message, boolean failed) {
-            this.value = value;
-            this.message = message;
-            this.failed = failed;
+        Failure(String simpleName, Object target) {
+            this(simpleName, target, null);
         }
 
-        static Result succeed(Object value) {
-            return new Result(value, "", false);
+        Failure(String simpleName, Object target, Throwable cause) {
+            this.simpleName = simpleName;
+            this.target = target;
+            this.cause = cause;
         }
 
-        public static Result fail(String message, Object... params) {
-            return new Result(null, String.format(message, params), true);
+        String message() {
+            if (target == null) {
+                return String.format("%s not found on null object.", simpleName);
+            }
+            if (target instanceof Map) {
+                return String.format("%s not found in map %s.", simpleName, target);
+            }
+            return String.format("%s not found on %s", simpleName, target);
         }
-    }
 
-    Result resolveComplexNameOnModel(Object model, String complexName) {
-        int dotIndex = complexName.indexOf('.');
-        if (dotIndex >= 0) {
-            Result nestedResult = resolveSimpleNameOnModel(model, complexName.substring(0, dotIndex));
-            if (!nestedResult.failed) {
-                return resolveComplexNameOnModel(nestedResult.value, complexName.substring(dotIndex + 1));
-            } else {
-                return nestedResult;
+        SoutException toException(Position position) {
+            if (cause != null) {
+                return new SoutException(position, cause, "Getting %s from %s failed.", simpleName, target);
             }
+            return new SoutException(position, "%s", message());
+        }
+    }
+
+    /**
+     * How a simple name gets resolved on objects of a specific class.
+     */
+    enum Strategy {
+        MAP(RenderListener.Resolution.MAP),
+        FUNCTION(RenderListener.Resolution.FUNCTION),
+        FIELD(RenderListener.Resolution.FIELD),
+        GETTER(RenderListener.Resolution.GETTER),
+        ISSER(RenderListener.Resolution.ISSER),
+        METHOD(RenderListener.Resolution.METHOD),
+        NONE(null);
+
+        /**
+         * How this strategy is reported to a {@link RenderListener}.
+         */
+        final RenderListener.Resolution resolution;
+
+        Strategy(RenderListener.Resolution resolution) {
+            this.resolution = resolution;
+        }
+    }
+
+    /**
+     * A way to get a value from an object of a specific class.
+     * {@link #NONE} is the negative entry: nothing by that name exists on the class.
+     */
+    static final class Accessor {
+        static final Accessor NONE = new Accessor(Strategy.NONE, null, null);
+        static final Accessor MAP = new Accessor(Strategy.MAP, null, null);
+        static final Accessor FUNCTION = new Accessor(Strategy.FUNCTION, null, null);
+
+        final Strategy strategy;
+        /**
+         * (Object)Object, only for fields and methods.
+         */
+        final MethodHandle handle;
+        /**
+         * The declared type of the field or method, only for fields and methods.
+         */
+        final Type type;
+
+        private Accessor(Strategy strategy, MethodHandle handle, Type type) {
+            this.strategy = strategy;
+            this.handle = handle;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Everything known about resolving names on one class.
+     */
+    private static final class ClassAccessors {
+        /**
+         * The accessor for every name when the class is a map or a function, otherwise null.
+         */
+        final Accessor shared;
+        final Map<String, Accessor> byName = new ConcurrentHashMap<>();
+
+        ClassAccessors(Accessor shared) {
+            this.shared = shared;
         }
-        return resolveSimpleNameOnModel(model, complexName);
     }
 
-    private Result resolveSimpleNameOnModel(Object target, String name) {
-        // If the name is empty, the value is the target itself.
-        if (name.isBlank()) {
-            return succeed(target);
+    private final ClassValue<ClassAccessors> accessors = new ClassValue<>() {
+        @Override
+        protected ClassAccessors computeValue(Class<?> type) {
+            if (Map.class.isAssignableFrom(type)) {
+                return new ClassAccessors(Accessor.MAP);
+            }
+            if (Function.class.isAssignableFrom(type)) {
+                return new ClassAccessors(Accessor.FUNCTION);
+            }
+            return new ClassAccessors(null);
+        }
+    };
+
+    /**
+     * @return the value of complexName on model, or a {@link Failure} if it couldn't be found.
+     */
+    Object resolveComplexNameOnModel(Object model, ComplexName complexName) {
+        var value = model;
+        for (String simpleName : complexName.simpleNames) {
+            value = resolveSimpleNameOnModel(value, simpleName);
+            if (value instanceof Failure) {
+                return value;
+            }
         }
+        return value;
+    }
+
+    private Object resolveSimpleNameOnModel(Object target, String name) {
         // If we're trying to resolve a name on a null object, it will always fail.
         if (target == null) {
-            return fail("%s not found on null object.", name);
+            return new Failure(name, null);
         }
-        // Find name in the keys of a map.
-        if (target instanceof Map) {
-            var map = (Map<String, Object>) target;
-            if (map.containsKey(name)) {
-                return succeed(map.get(name));
-            }
-            return fail("%s not found in map %s.", name, target);
+        return access(accessorFor(target.getClass(), name), target, name);
+    }
+
+    /**
+     * @return the value that accessor finds for name on target (which is not null), or a {@link Failure}.
+     */
+    static Object access(Accessor accessor, Object target, String name) {
+        switch (accessor.strategy) {
+            case MAP:
+                // Find name in the keys of a map.
+                var map = (Map<String, Object>) target;
+                var value = map.get(name);
+                if (value != null || map.containsKey(name)) {
+                    return value;
+                }
+                return new Failure(name, target);
+            case FUNCTION:
+                // Find value by applying the target function to the key.
+                return ((Function<Object, Object>) target).apply(name);
+            case NONE:
+                return new Failure(name, target);
+            default:
+                // A field, getter, isser or plain method.
+                try {
+                    return (Object) accessor.handle.invokeExact(target);
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    // The accessor was found, so this is the field or method itself failing.
+                    return new Failure(name, target, t);
+                }
+        }
+    }
+
+    /**
+     * @return the cached accessor for name on type, or {@link Accessor#NONE} if there is none.
+     */
+    Accessor accessorFor(Class<?> type, String name) {
+        var classAccessors = accessors.get(type);
+        if (classAccessors.shared != null) {
+            return classAccessors.shared;
         }
-        // Find value by applying the target function to the key.
-        if (target instanceof Function) {
-            return succeed(((Function<Object, Object>) target).apply(name));
+        var accessor = classAccessors.byName.get(name);
+        if (accessor == null) {
+            accessor = findAccessor(type, name);
+            classAccessors.byName.put(name, accessor);
         }
+        return accessor;
+    }
+
+    private static Accessor findAccessor(Class<?> type, String name) {
         // Find the value of a field called name.
-        var fieldResult = getFieldValue(target, target.getClass(), name);
-        if (!fieldResult.failed) {
-            return fieldResult;
-        }
-        // Get the value from getName()
-        var getterResult = getMethodValue(target, target.getClass(), "get" + capitalize(name));
-        if (!getterResult.failed) {
-            return getterResult;
-        }
-        // Get the value from isName()
-        var isserResult = getMethodValue(target, target.getClass(), "is" + capitalize(name));
-        if (!isserResult.failed) {
-            return isserResult;
-        }
-        // Get the value from name()
-        var plainMethodResult = getMethodValue(target, target.getClass(), name);
-        if (!plainMethodResult.failed) {
-            return plainMethodResult;
-        }
-        // Give up.
-        return fail("%s not found on %s", name, target);
+        var accessor = accessor(Strategy.FIELD, findField(type, name));
+        if (accessor == null) {
+            // Get the value from getName()
+            accessor = accessor(Strategy.GETTER, findMethod(type, "get" + capitalize(name)));
+        }
+        if (accessor == null) {
+            // Get the value from isName()
+            accessor = accessor(Strategy.ISSER, findMethod(type, "is" + capitalize(name)));
+        }
+        if (accessor == null) {
+            // Get the value from name()
+            accessor = accessor(Strategy.METHOD, findMethod(type, name));
+        }
+        if (accessor == null) {
+            return Accessor.NONE;
+        }
+        return accessor;
     }
 
     private static String capitalize(String s) {
         return s.substring(0, 1).toUpperCase() + s.substring(1);
     }
 
-    static Result getFieldValue(Object target, Class<?> type, String fieldName) {
-        try {
-            var field = type.getDeclaredField(fieldName);
-            field.setAccessible(true);
-            return succeed(field.get(target));
-        } catch (NoSuchFieldException e) {
-            // go on
-        } catch (IllegalAccessException e) {
-            return fail("");
+    private static Field findField(Class<?> type, String fieldName) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.getName().equals(fieldName)) {
+                    return field;
+                }
+            }
         }
+        return null;
+    }
 
-        var superclass = type.getSuperclass();
-        if (superclass == null) {
-            return fail("");
+    private static Method findMethod(Class<?> type, String methodName) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (method.getParameterCount() == 0 && !method.isBridge() && method.getName().equals(methodName)) {
+                    return method;
+                }
+            }
         }
-        return getFieldValue(target, superclass, fieldName);
+        return null;
     }
 
-    static Result getMethodValue(Object target, Class<?> type, String fieldName) {
+    /**
+     * @return an accessor with an (Object)Object handle for member, or null if there is no member or it can't be accessed.
+     */
+    private static Accessor accessor(Strategy strategy, Member member) {
+        if (member == null || !((AccessibleObject) member).trySetAccessible()) {
+            return null;
+        }
         try {
-            var method = type.getDeclaredMethod(fieldName);
-            method.setAccessible(true);
-            return succeed(method.invoke(target));
-        } catch (NoSuchMethodException | InvocationTargetException e) {
-            // go on
+            MethodHandle handle;
+            Type type;
+            if (member instanceof Field) {
+                handle = MethodHandles.lookup().unreflectGetter((Field) member);
+                type = ((Field) member).getGenericType();
+            } else {
+                handle = MethodHandles.lookup().unreflect((Method) member);
+                type = ((Method) member).getGenericReturnType();
+            }
+            if (Modifier.isStatic(member.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return new Accessor(strategy, handle.asType(methodType(Object.class, Object.class)), type);
         } catch (IllegalAccessException e) {
-            return fail("");
-        }
-
-        var superclass = type.getSuperclass();
-        if (superclass == null) {
-            return fail("");
+            return null;
         }
-        return getMethodValue(target, superclass, fieldName);
     }
 }
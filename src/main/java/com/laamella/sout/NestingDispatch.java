@@ -0,0 +1,105 @@
+package com.laamella.sout;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Decides once per class of nested model which of the standard renderers of a nesting renders it,
+ * so that nestings don't go through all the renderers and instanceof checks on every render.
+ * <p>
+ * The custom renderers still get to go first.
+ * When they say that their decision depends only on the class of the model,
+ * a class they declined once is not offered to them again.
+ * There is one dispatch per template, since the custom renderers come from its configuration.
+ */
+final class NestingDispatch {
+    enum Kind {
+        NULL,
+        /**
+         * For {@link BooleanRenderer}.
+         */
+        BOOLEAN,
+        /**
+         * Arrays and random access lists, which {@link CollectionRenderer} loops over by index.
+         */
+        INDEXED,
+        /**
+         * Other collections, which {@link CollectionRenderer} loops over with an iterator.
+         */
+        ITERATED,
+        /**
+         * Anything else, for {@link SimpleNestingRenderer}.
+         */
+        OTHER
+    }
+
+    /**
+     * What is known about rendering models of one class.
+     * The custom renderers' declines are found out while rendering.
+     * Racing threads may both ask a custom renderer before one of them records its decline, which is harmless.
+     */
+    static final class Decision {
+        final Kind kind;
+        boolean customTypeRendererDeclines = false;
+        boolean customIteratorFactoryDeclines = false;
+
+        private Decision(Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+    private static final Decision NULL_DECISION = new Decision(Kind.NULL);
+
+    private final boolean customTypeRendererDependsOnlyOnClass;
+    private final boolean customIteratorFactoryDependsOnlyOnClass;
+    private final ClassValue<Decision> decisions = new ClassValue<>() {
+        @Override
+        protected Decision computeValue(Class<?> type) {
+            return new Decision(kindOf(type));
+        }
+    };
+
+    NestingDispatch(CustomTypeRenderer customTypeRenderer, CustomIteratorFactory customIteratorFactory) {
+        this.customTypeRendererDependsOnlyOnClass = customTypeRenderer == SoutConfiguration.NO_CUSTOM_TYPE_RENDERER || customTypeRenderer.dependsOnlyOnClass();
+        this.customIteratorFactoryDependsOnlyOnClass = customIteratorFactory == SoutConfiguration.NO_CUSTOM_ITERATOR_FACTORY || customIteratorFactory.dependsOnlyOnClass();
+    }
+
+    Decision decide(Object model) {
+        return model == null ? NULL_DECISION : decisions.get(model.getClass());
+    }
+
+    void customTypeRendererDeclined(Decision decision) {
+        if (customTypeRendererDependsOnlyOnClass && decision != NULL_DECISION) {
+            decision.customTypeRendererDeclines = true;
+        }
+    }
+
+    void customIteratorFactoryDeclined(Decision decision) {
+        if (customIteratorFactoryDependsOnlyOnClass && decision != NULL_DECISION) {
+            decision.customIteratorFactoryDeclines = true;
+        }
+    }
+
+    /**
+     * Follows the order of {@link IteratorFactory#toStandardIterator(Object, Position)}.
+     * A CopyOnWriteArrayList can change between getting its size and getting an element, so it uses its iterator which works on a snapshot.
+     */
+    private static Kind kindOf(Class<?> type) {
+        if (type == Boolean.class) {
+            return Kind.BOOLEAN;
+        }
+        if (type.isArray()) {
+            return Kind.INDEXED;
+        }
+        if (List.class.isAssignableFrom(type) && RandomAccess.class.isAssignableFrom(type) && !CopyOnWriteArrayList.class.isAssignableFrom(type)) {
+            return Kind.INDEXED;
+        }
+        if (List.class.isAssignableFrom(type) || Stream.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type) || Iterable.class.isAssignableFrom(type)) {
+            return Kind.ITERATED;
+        }
+        return Kind.OTHER;
+    }
+}
@@ -0,0 +1,48 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The Writers that sout renders to internally.
+ * Unlike most Writers they don't lock, and some can write numbers without making a String for them first.
+ * Renderers and custom renderers still see them as plain Writers.
+ * Not thread safe.
+ */
+abstract class OutputSink extends Writer {
+    private final char[] digits = new char[20];
+
+    /**
+     * Write value like Long.toString(value) would.
+     */
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write("-9223372036854775808");
+            return;
+        }
+        int start = digits.length;
+        long rest = Math.abs(value);
+        do {
+            digits[--start] = (char) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        write(digits, start, digits.length - start);
+    }
+
+    /**
+     * Write value like Double.toString(value) would.
+     */
+    void writeDouble(double value) throws IOException {
+        write(Double.toString(value));
+    }
+
+    /**
+     * Write value like Float.toString(value) would.
+     */
+    void writeFloat(float value) throws IOException {
+        write(Float.toString(value));
+    }
+}
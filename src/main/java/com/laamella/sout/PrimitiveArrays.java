@@ -0,0 +1,110 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Gets and writes the elements of primitive arrays, so that loops over them don't need an iterator.
+ */
+final class PrimitiveArrays {
+    private PrimitiveArrays() {
+    }
+
+    static int length(Object array) {
+        return java.lang.reflect.Array.getLength(array);
+    }
+
+    /**
+     * @return element index of array, boxed.
+     */
+    static Object get(Object array, int index) {
+        if (array instanceof int[]) {
+            return ((int[]) array)[index];
+        } else if (array instanceof long[]) {
+            return ((long[]) array)[index];
+        } else if (array instanceof double[]) {
+            return ((double[]) array)[index];
+        } else if (array instanceof float[]) {
+            return ((float[]) array)[index];
+        } else if (array instanceof boolean[]) {
+            return ((boolean[]) array)[index];
+        } else if (array instanceof char[]) {
+            return ((char[]) array)[index];
+        } else if (array instanceof byte[]) {
+            return ((byte[]) array)[index];
+        } else if (array instanceof short[]) {
+            return ((short[]) array)[index];
+        }
+        throw new IllegalArgumentException(array.getClass().getName());
+    }
+
+    /**
+     * Writes element index of array like its toString() would, but without boxing it.
+     * A StringWriter gets the element appended straight to its buffer,
+     * and an {@link OutputSink} gets the number itself, so it can avoid making a String for it.
+     */
+    static void write(Object array, int index, Writer outputWriter) throws IOException {
+        if (outputWriter instanceof StringWriter) {
+            append(array, index, ((StringWriter) outputWriter).getBuffer());
+        } else if (array instanceof int[]) {
+            writeLong(((int[]) array)[index], outputWriter);
+        } else if (array instanceof long[]) {
+            writeLong(((long[]) array)[index], outputWriter);
+        } else if (array instanceof double[]) {
+            var value = ((double[]) array)[index];
+            if (outputWriter instanceof OutputSink) {
+                ((OutputSink) outputWriter).writeDouble(value);
+            } else {
+                outputWriter.write(Double.toString(value));
+            }
+        } else if (array instanceof float[]) {
+            var value = ((float[]) array)[index];
+            if (outputWriter instanceof OutputSink) {
+                ((OutputSink) outputWriter).writeFloat(value);
+            } else {
+                outputWriter.write(Float.toString(value));
+            }
+        } else if (array instanceof boolean[]) {
+            outputWriter.write(((boolean[]) array)[index] ? "true" : "false");
+        } else if (array instanceof char[]) {
+            outputWriter.write(((char[]) array)[index]);
+        } else if (array instanceof byte[]) {
+            writeLong(((byte[]) array)[index], outputWriter);
+        } else if (array instanceof short[]) {
+            writeLong(((short[]) array)[index], outputWriter);
+        } else {
+            throw new IllegalArgumentException(array.getClass().getName());
+        }
+    }
+
+    private static void writeLong(long value, Writer outputWriter) throws IOException {
+        if (outputWriter instanceof OutputSink) {
+            ((OutputSink) outputWriter).writeLong(value);
+        } else {
+            outputWriter.write(Long.toString(value));
+        }
+    }
+
+    private static void append(Object array, int index, StringBuffer buffer) {
+        if (array instanceof int[]) {
+            buffer.append(((int[]) array)[index]);
+        } else if (array instanceof long[]) {
+            buffer.append(((long[]) array)[index]);
+        } else if (array instanceof double[]) {
+            buffer.append(((double[]) array)[index]);
+        } else if (array instanceof float[]) {
+            buffer.append(((float[]) array)[index]);
+        } else if (array instanceof boolean[]) {
+            buffer.append(((boolean[]) array)[index]);
+        } else if (array instanceof char[]) {
+            buffer.append(((char[]) array)[index]);
+        } else if (array instanceof byte[]) {
+            buffer.append(((byte[]) array)[index]);
+        } else if (array instanceof short[]) {
+            buffer.append(((short[]) array)[index]);
+        } else {
+            throw new IllegalArgumentException(array.getClass().getName());
+        }
+    }
+}
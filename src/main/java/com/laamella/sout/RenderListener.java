@@ -0,0 +1,55 @@
+package com.laamella.sout;
+
+/**
+ * Gets told what templates do while rendering, for collecting metrics.
+ * See {@link SoutConfiguration#setRenderListener(RenderListener, boolean)}.
+ * <p>
+ * The methods are called on the rendering threads, in the middle of rendering,
+ * so they need to be thread safe and quick, like incrementing a LongAdder or recording into a histogram.
+ * All methods do nothing by default.
+ * <p>
+ * {@link SoutTemplate#renderAsync} and {@link SoutTemplate#renderPublisher} don't report whole renders to
+ * {@link #rendered}, since they don't run on one thread from start to end.
+ * Their loops and names are reported like those of any other render.
+ */
+public interface RenderListener {
+    /**
+     * How a name was resolved on a model. See README.md.
+     */
+    enum Resolution {MAP, FUNCTION, FIELD, GETTER, ISSER, METHOD}
+
+    /**
+     * Called after every successful render with render(...) or renderToString(...).
+     * Renders with renderAsync(...) or renderPublisher(...) are not reported here.
+     *
+     * @param template       the template that was rendered.
+     * @param nanoseconds    how long the render took.
+     * @param characters     how many characters were rendered, or -1 when that isn't known,
+     *                       like when the output is encoded to bytes, or isn't buffered.
+     * @param bytes          how many bytes were written when rendering to an OutputStream, otherwise -1.
+     * @param allocatedBytes how many bytes the rendering thread allocated during the render,
+     *                       or -1 when allocations are not measured.
+     *                       Work done by other threads, like for parallel loops, is not included.
+     */
+    default void rendered(SoutTemplate template, long nanoseconds, long characters, long bytes, long allocatedBytes) {
+    }
+
+    /**
+     * Called after every loop.
+     *
+     * @param template   the template that is being rendered.
+     * @param position   the position of the loop in the template.
+     * @param iterations the amount of elements that were looped over.
+     */
+    default void looped(SoutTemplate template, Position position, long iterations) {
+    }
+
+    /**
+     * Called for every simple name that is resolved on a model, so "a.b" is two resolutions.
+     *
+     * @param template   the template that is being rendered.
+     * @param resolution how the name was resolved.
+     */
+    default void resolved(SoutTemplate template, Resolution resolution) {
+    }
+}
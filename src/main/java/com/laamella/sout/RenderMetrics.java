@@ -0,0 +1,117 @@
+package com.laamella.sout;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Passes what one template does while rendering on to the {@link RenderListener} of its configuration.
+ * This class itself measures nothing: it is what templates get when there is no listener,
+ * so that every call is an empty one to a single implementation.
+ * {@link ListeningRenderMetrics} does the measuring.
+ */
+class RenderMetrics {
+    static final RenderMetrics NONE = new RenderMetrics();
+
+    /**
+     * @return the start time of a render, to pass to {@link #rendered}.
+     */
+    long startTime() {
+        return 0;
+    }
+
+    /**
+     * @return the bytes allocated by this thread so far, to pass to {@link #rendered}, or -1 if they aren't measured.
+     */
+    long allocatedBytes() {
+        return -1;
+    }
+
+    void rendered(long startTime, long startAllocatedBytes, long characters, long bytes) {
+    }
+
+    void looped(Position position, long iterations) {
+    }
+
+    void resolved(NameResolver.Strategy strategy) {
+    }
+}
+
+/**
+ * The {@link RenderMetrics} for templates that have a {@link RenderListener}.
+ */
+final class ListeningRenderMetrics extends RenderMetrics {
+    private final SoutTemplate template;
+    private final RenderListener listener;
+    /**
+     * Gets the bytes allocated by the current thread, or null when allocations are not measured.
+     */
+    private final MethodHandle allocatedBytesGetter;
+
+    ListeningRenderMetrics(SoutTemplate template, RenderListener listener, boolean measureAllocations) {
+        this.template = template;
+        this.listener = listener;
+        this.allocatedBytesGetter = measureAllocations ? allocatedBytesGetter() : null;
+    }
+
+    /**
+     * The bean that measures allocations is in jdk.management, which sout doesn't need otherwise,
+     * so it is looked up reflectively and allocations are simply not measured when the module is missing.
+     *
+     * @return a handle that gets the bytes allocated by the current thread,
+     * or null if this JVM can't measure them or measuring is turned off.
+     */
+    private static MethodHandle allocatedBytesGetter() {
+        try {
+            var bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            var sunBeanClass = Class.forName("com.sun.management.ThreadMXBean");
+            // Turning measuring on would change it for the whole JVM, so when someone turned it off, it stays off.
+            if (!sunBeanClass.isInstance(bean)
+                    || !(boolean) sunBeanClass.getMethod("isThreadAllocatedMemorySupported").invoke(bean)
+                    || !(boolean) sunBeanClass.getMethod("isThreadAllocatedMemoryEnabled").invoke(bean)) {
+                return null;
+            }
+            return MethodHandles.publicLookup()
+                    .unreflect(sunBeanClass.getMethod("getCurrentThreadAllocatedBytes"))
+                    .bindTo(bean)
+                    .asType(MethodType.methodType(long.class));
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    long startTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    long allocatedBytes() {
+        if (allocatedBytesGetter == null) {
+            return -1;
+        }
+        try {
+            return (long) allocatedBytesGetter.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    void rendered(long startTime, long startAllocatedBytes, long characters, long bytes) {
+        var allocatedBytes = startAllocatedBytes < 0 ? -1 : allocatedBytes() - startAllocatedBytes;
+        listener.rendered(template, System.nanoTime() - startTime, characters, bytes, allocatedBytes);
+    }
+
+    @Override
+    void looped(Position position, long iterations) {
+        listener.looped(template, position, iterations);
+    }
+
+    @Override
+    void resolved(NameResolver.Strategy strategy) {
+        listener.resolved(template, strategy.resolution);
+    }
+}
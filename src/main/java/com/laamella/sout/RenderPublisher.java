@@ -0,0 +1,141 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes a render as ByteBuffers, see {@link SoutTemplate#renderPublisher(Object, Charset, Executor)}.
+ * Every subscriber gets its own render.
+ * <p>
+ * A render blocks its executor thread while the subscriber hasn't requested more,
+ * so the executor needs a free thread for every active subscription.
+ * Cancelling the subscription releases the thread.
+ */
+final class RenderPublisher implements Flow.Publisher<ByteBuffer> {
+    private final Consumer<Writer> rendering;
+    private final Charset charset;
+    private final Executor executor;
+
+    RenderPublisher(Consumer<Writer> rendering, Charset charset, Executor executor) {
+        this.rendering = rendering;
+        this.charset = charset;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        requireNonNull(subscriber);
+        var subscription = new RenderSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        try {
+            executor.execute(subscription::render);
+        } catch (RuntimeException e) {
+            subscriber.onError(e);
+        }
+    }
+
+    /**
+     * Renders on a thread of the executor into an {@link EncodingWriter}.
+     * Every time its buffer is full, the bytes go to the subscriber, and when the subscriber hasn't asked for more,
+     * the rendering thread waits until it does.
+     */
+    private final class RenderSubscription extends OutputStream implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private long demand = 0;
+        private boolean cancelled = false;
+        /**
+         * A bad request, which the rendering thread should pass to the subscriber.
+         */
+        private IllegalArgumentException badRequest;
+
+        RenderSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void render() {
+            try {
+                var encodingWriter = new EncodingWriter(this, charset);
+                rendering.accept(encodingWriter);
+                encodingWriter.finish();
+                synchronized (this) {
+                    if (cancelled) {
+                        return;
+                    }
+                    cancelled = true;
+                }
+                subscriber.onComplete();
+            } catch (CancellationException e) {
+                // The subscriber isn't interested anymore.
+            } catch (Throwable t) {
+                synchronized (this) {
+                    if (cancelled) {
+                        return;
+                    }
+                    cancelled = true;
+                }
+                subscriber.onError(t);
+            }
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                if (badRequest == null) {
+                    badRequest = new IllegalArgumentException("Requested " + n + " buffers, should be more than zero.");
+                }
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            awaitDemand();
+            subscriber.onNext(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+        }
+
+        private synchronized void awaitDemand() throws InterruptedIOException {
+            try {
+                while (demand == 0 && !cancelled && badRequest == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (badRequest != null) {
+                throw badRequest;
+            }
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            demand--;
+        }
+    }
+}
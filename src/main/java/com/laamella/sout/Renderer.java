@@ -1,9 +1,16 @@
 package com.laamella.sout;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 import static java.util.stream.Collectors.joining;
 
@@ -20,53 +27,136 @@ abstract class Renderer implements Renderable {
     }
 
     public abstract void render(Object model, Scope scope, Writer outputWriter);
+
+    /**
+     * Render with element index of a primitive array as the model.
+     * By default the element is boxed, and rendered like any other model.
+     * Renderers that can do without the box override this.
+     */
+    void renderArrayElement(Object array, int index, Scope scope, Writer outputWriter) {
+        render(PrimitiveArrays.get(array, index), scope, outputWriter);
+    }
 }
 
 class NameRenderer extends Renderer {
-    private final String name;
-    private final NameResolver nameResolver;
+    private final ComplexName name;
+    final NameCallSite nameCallSite;
     private final CustomNameRenderer customNameRenderer;
     private final CustomTypeRenderer customTypeRenderer;
+    /**
+     * Whether this renders the model itself with toString(), like {}, with no custom renderers in the way.
+     */
+    private final boolean rendersModelItself;
 
-    NameRenderer(String name, Position position, NameResolver nameResolver, CustomNameRenderer customNameRenderer, CustomTypeRenderer customTypeRenderer) {
+    NameRenderer(ComplexName name, Position position, NameResolver nameResolver, CustomNameRenderer customNameRenderer, CustomTypeRenderer customTypeRenderer, RenderMetrics metrics) {
         super(position);
         this.name = name;
         this.customNameRenderer = customNameRenderer;
-        this.nameResolver = nameResolver;
+        this.nameCallSite = new NameCallSite(name, nameResolver, metrics);
         this.customTypeRenderer = customTypeRenderer;
+        this.rendersModelItself = name.simpleNames.length == 0
+                && customNameRenderer == SoutConfiguration.NO_CUSTOM_NAME_RENDERER
+                && customTypeRenderer == SoutConfiguration.NO_CUSTOM_TYPE_RENDERER;
+    }
+
+    @Override
+    void renderArrayElement(Object array, int index, Scope scope, Writer outputWriter) {
+        if (!rendersModelItself) {
+            super.renderArrayElement(array, index, scope, outputWriter);
+            return;
+        }
+        try {
+            PrimitiveArrays.write(array, index, outputWriter);
+        } catch (IOException e) {
+            throw new SoutException(position, e);
+        }
     }
 
     @Override
     public void render(Object model, Scope scope, Writer outputWriter) {
+        if (!FlightRecorderEvents.SLOW_NAME.isEnabled()) {
+            renderName(model, scope, outputWriter);
+            return;
+        }
+        var event = FlightRecorderEvents.SLOW_NAME.begin();
         try {
-            if (customNameRenderer.render(name, null, model, scope, position, outputWriter)) {
+            renderName(model, scope, outputWriter);
+        } finally {
+            FlightRecorderEvents.SLOW_NAME.finish(event, name.text, position.toString());
+        }
+    }
+
+    private void renderName(Object model, Scope scope, Writer outputWriter) {
+        try {
+            if (customNameRenderer.render(name.text, null, model, scope, position, outputWriter)) {
                 return;
             }
-            NameResolver.Result subModelResult = nameResolver.resolveComplexNameOnModel(model, name);
-            if (subModelResult.failed) {
-                throw new SoutException(position, subModelResult.message);
+        } catch (IOException e) {
+            throw new SoutException(position, e);
+        }
+        renderResolved(nameCallSite.resolve(model), scope, outputWriter);
+    }
+
+    /**
+     * @return the handle of the accessor that the {@link TypeBinder} bound this name to,
+     * when that is all it takes to resolve it, otherwise null.
+     */
+    MethodHandle boundHandle() {
+        if (customNameRenderer != SoutConfiguration.NO_CUSTOM_NAME_RENDERER) {
+            return null;
+        }
+        return nameCallSite.boundHandle();
+    }
+
+    /**
+     * Renders like {@link #render}, for a {@link TemplateCompiler compiled container}
+     * that passes the {@link #boundHandle()} as a constant, so the JIT can inline the field or method it accesses.
+     */
+    void renderWithHandle(MethodHandle handle, Object model, Scope scope, Writer outputWriter) {
+        if (model == null || FlightRecorderEvents.SLOW_NAME.isEnabled()) {
+            render(model, scope, outputWriter);
+            return;
+        }
+        renderResolved(nameCallSite.resolveBound(handle, model), scope, outputWriter);
+    }
+
+    private void renderResolved(Object subModel, Scope scope, Writer outputWriter) {
+        try {
+            if (subModel instanceof NameResolver.Failure) {
+                throw ((NameResolver.Failure) subModel).toException(position);
             }
-            var subModel = subModelResult.value;
-            if (customTypeRenderer.render(name, null, subModel, scope, null, null, position, outputWriter)) {
+            if (subModel instanceof CompletionStage && outputWriter instanceof AsyncWriter) {
+                ((AsyncWriter) outputWriter).await((CompletionStage<?>) subModel, position, (value, writer) -> renderValue(value, scope, writer));
                 return;
             }
-            if (subModel == null) {
-                throw new SoutException(position, "Null value.");
-            }
-            outputWriter.append(subModel.toString());
+            renderValue(subModel, scope, outputWriter);
         } catch (IOException e) {
             throw new SoutException(position, e);
         }
     }
 
+    private void renderValue(Object subModel, Scope scope, Writer outputWriter) throws IOException {
+        if (customTypeRenderer.render(name.text, null, subModel, scope, null, null, position, outputWriter)) {
+            return;
+        }
+        if (subModel == null) {
+            throw new SoutException(position, "Null value.");
+        }
+        outputWriter.append(subModel.toString());
+    }
+
     @Override
     public String toString() {
-        return "❰" + name + "❱";
+        return "❰" + name.text + "❱";
     }
 }
 
+/**
+ * Renders its children one after the other.
+ * When compiling is turned on, {@link TemplateCompiler} generates a subclass for it.
+ */
 class ContainerRenderer extends Renderer {
-    private final List<Renderer> children;
+    final List<Renderer> children;
 
     ContainerRenderer(Position position, List<Renderer> children) {
         super(position);
@@ -80,72 +170,174 @@ class ContainerRenderer extends Renderer {
         }
     }
 
+    @Override
+    void renderArrayElement(Object array, int index, Scope scope, Writer outputWriter) {
+        for (var child : children) {
+            child.renderArrayElement(array, index, scope, outputWriter);
+        }
+    }
+
     @Override
     public String toString() {
         return children.stream().map(Object::toString).collect(joining());
     }
 }
 
+/**
+ * Renders the nestings among its children concurrently on an executor, each into its own buffer,
+ * and writes everything to the output in template order.
+ * Every child gets a scope of its own, so variables defined by one child are not visible to the others.
+ * The scopes above can't be changed while the children render, and loops in the children are not rendered in parallel.
+ * <p>
+ * The buffers are plain character buffers, so text inside the nestings is encoded along with the rest of their output,
+ * instead of being written pre-encoded to an {@link EncodingWriter}.
+ * For {@link AsyncWriter}s the children are rendered one after the other,
+ * since the values they wait for need the AsyncWriter itself, which waits for them concurrently already.
+ */
+class ConcurrentContainerRenderer extends ContainerRenderer {
+    private final Executor executor;
+
+    ConcurrentContainerRenderer(Position position, List<Renderer> children, Executor executor) {
+        super(position, children);
+        this.executor = executor;
+    }
+
+    @Override
+    public void render(Object model, Scope scope, Writer outputWriter) {
+        if (outputWriter instanceof AsyncWriter) {
+            for (var child : children) {
+                child.render(model, new Scope(scope), outputWriter);
+            }
+            return;
+        }
+        var concurrentBuffers = new ConcurrentBuffers(executor);
+        var buffers = new ArrayList<CompletableFuture<StringWriter>>();
+        var frozenAlready = scope.freeze();
+        try {
+            for (var child : children) {
+                if (child instanceof NestedRenderer) {
+                    buffers.add(concurrentBuffers.render(buffer -> child.render(model, new Scope(scope, false, true), buffer)));
+                }
+            }
+            var nextBuffer = buffers.iterator();
+            for (var child : children) {
+                if (child instanceof NestedRenderer) {
+                    outputWriter.write(ConcurrentBuffers.join(nextBuffer.next()).toString());
+                } else {
+                    child.render(model, new Scope(scope, false, true), outputWriter);
+                }
+            }
+        } catch (IOException e) {
+            throw new SoutException(position, e);
+        } finally {
+            concurrentBuffers.cancelAndWait();
+            scope.thaw(frozenAlready);
+        }
+    }
+}
+
 class NestedRenderer extends Renderer {
-    private final String name;
-    private final NameResolver nameResolver;
+    private final ComplexName name;
+    final NameCallSite nameCallSite;
     private final CustomNameRenderer customNameRenderer;
     private final CustomTypeRenderer customTypeRenderer;
-    private final Renderable[] parts;
+    final Renderable[] parts;
     private final BooleanRenderer booleanRenderer = new BooleanRenderer();
     private final CollectionRenderer collectionRenderer;
     private final SimpleNestingRenderer simpleNestingRenderer = new SimpleNestingRenderer();
+    private final NestingDispatch nestingDispatch;
 
-    NestedRenderer(String name, Position position, NameResolver nameResolver, CustomNameRenderer customNameRenderer, CustomTypeRenderer customTypeRenderer, IteratorFactory iteratorFactory, Renderable[] parts) {
+    NestedRenderer(ComplexName name, Position position, NameResolver nameResolver, CustomNameRenderer customNameRenderer, CustomTypeRenderer customTypeRenderer, IteratorFactory iteratorFactory,
+                   NestingDispatch nestingDispatch, Executor parallelLoopExecutor, int parallelLoopMinimumSize, RenderMetrics metrics, Renderable[] parts) {
         super(position);
         this.name = name;
-        this.nameResolver = nameResolver;
+        this.nameCallSite = new NameCallSite(name, nameResolver, metrics);
         this.customNameRenderer = customNameRenderer;
         this.customTypeRenderer = customTypeRenderer;
         this.parts = parts;
-        this.collectionRenderer = new CollectionRenderer(iteratorFactory);
+        this.nestingDispatch = nestingDispatch;
+        this.collectionRenderer = new CollectionRenderer(iteratorFactory, nestingDispatch, metrics, parallelLoopExecutor, parallelLoopMinimumSize);
     }
 
     @Override
     public void render(Object model, Scope scope, Writer outputWriter) {
+        if (!FlightRecorderEvents.SLOW_NAME.isEnabled()) {
+            renderNesting(model, scope, outputWriter);
+            return;
+        }
+        var event = FlightRecorderEvents.SLOW_NAME.begin();
         try {
-            if (customNameRenderer.render(name, parts, model, scope, position, outputWriter)) {
-                return;
-            }
-
-            var nestedModelResult = nameResolver.resolveComplexNameOnModel(model, name);
-            if (nestedModelResult.failed) {
-                throw new SoutException(position, nestedModelResult.message);
-            }
-            var nestedModel = nestedModelResult.value;
-            var nestedScope = new Scope(scope);
+            renderNesting(model, scope, outputWriter);
+        } finally {
+            FlightRecorderEvents.SLOW_NAME.finish(event, name.text, position.toString());
+        }
+    }
 
-            if (customTypeRenderer.render(name, parts, nestedModel, nestedScope, model, scope, position, outputWriter)) {
-                return;
-            }
-            if (booleanRenderer.render(name, parts, nestedModel, nestedScope, model, scope, position, outputWriter)) {
+    private void renderNesting(Object model, Scope scope, Writer outputWriter) {
+        try {
+            if (customNameRenderer.render(name.text, parts, model, scope, position, outputWriter)) {
                 return;
             }
-            if (collectionRenderer.render(name, parts, nestedModel, nestedScope, model, scope, position, outputWriter)) {
-                return;
+
+            var nestedModel = nameCallSite.resolve(model);
+            if (nestedModel instanceof NameResolver.Failure) {
+                throw ((NameResolver.Failure) nestedModel).toException(position);
             }
-            if (simpleNestingRenderer.render(name, parts, nestedModel, nestedScope, model, scope, position, outputWriter)) {
+            if (nestedModel instanceof CompletionStage && outputWriter instanceof AsyncWriter) {
+                ((AsyncWriter) outputWriter).await((CompletionStage<?>) nestedModel, position, (value, writer) -> renderNested(value, model, scope, writer));
                 return;
             }
-            throw new SoutException(position, "Don't know how to render %s.", name);
+            renderNested(nestedModel, model, scope, outputWriter);
         } catch (IOException e) {
             throw new SoutException(position, e);
         }
     }
 
+    private void renderNested(Object nestedModel, Object model, Scope scope, Writer outputWriter) throws IOException {
+        var nestedScope = new Scope(scope);
+        var decision = nestingDispatch.decide(nestedModel);
+
+        if (!decision.customTypeRendererDeclines) {
+            if (customTypeRenderer.render(name.text, parts, nestedModel, nestedScope, model, scope, position, outputWriter)) {
+                return;
+            }
+            nestingDispatch.customTypeRendererDeclined(decision);
+        }
+        if (decision.kind == NestingDispatch.Kind.BOOLEAN) {
+            booleanRenderer.render(name.text, parts, nestedModel, nestedScope, model, scope, position, outputWriter);
+            return;
+        }
+        if (collectionRenderer.render(decision, name.text, parts, nestedModel, nestedScope, model, scope, position, outputWriter)) {
+            return;
+        }
+        if (simpleNestingRenderer.render(name.text, parts, nestedModel, nestedScope, model, scope, position, outputWriter)) {
+            return;
+        }
+        throw new SoutException(position, "Don't know how to render %s.", name.text);
+    }
+
     @Override
     public String toString() {
-        return '❰' + name + "❚" + Arrays.stream(parts).map(Object::toString).collect(joining("❚")) + '❱';
+        return '❰' + name.text + "❚" + Arrays.stream(parts).map(Object::toString).collect(joining("❚")) + '❱';
     }
 }
 
 class TextRenderer extends Renderer {
     final String text;
+    /**
+     * The text encoded for the last charset it was rendered with, for {@link EncodingWriter}.
+     */
+    private volatile EncodedText encodedText;
+
+    private static final class EncodedText {
+        final Charset charset;
+        final byte[] bytes;
+
+        EncodedText(Charset charset, byte[] bytes) {
+            this.charset = charset;
+            this.bytes = bytes;
+        }
+    }
 
     TextRenderer(String text, Position position) {
         super(position);
@@ -154,16 +346,46 @@ class TextRenderer extends Renderer {
 
     @Override
     public void render(Object model, Scope scope, Writer outputWriter) {
+        renderText(text, outputWriter);
+    }
+
+    /**
+     * Renders the text, which a {@link TemplateCompiler compiled container} passes in as a string constant.
+     *
+     * @param constantText the same as {@link #text}.
+     */
+    void renderText(String constantText, Writer outputWriter) {
         try {
-            outputWriter.append(text);
+            if (outputWriter instanceof EncodingWriter) {
+                var encodingWriter = (EncodingWriter) outputWriter;
+                if (encodingWriter.acceptsEncodedText) {
+                    encodingWriter.writeEncoded(encode(encodingWriter.charset));
+                    return;
+                }
+            }
+            outputWriter.append(constantText);
         } catch (IOException e) {
             throw new SoutException(position, e);
         }
     }
 
+    @Override
+    void renderArrayElement(Object array, int index, Scope scope, Writer outputWriter) {
+        // Text doesn't look at the model, so there is no need to get the element.
+        render(null, scope, outputWriter);
+    }
+
+    private byte[] encode(Charset charset) {
+        var encodedText = this.encodedText;
+        if (encodedText == null || !encodedText.charset.equals(charset)) {
+            encodedText = new EncodedText(charset, text.getBytes(charset));
+            this.encodedText = encodedText;
+        }
+        return encodedText.bytes;
+    }
+
     @Override
     public String toString() {
         return text;
     }
 }
-
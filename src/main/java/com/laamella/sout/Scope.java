@@ -1,19 +1,89 @@
 package com.laamella.sout;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * A scope that holds user-defined variables.
+ * <p>
+ * Most scopes never get a variable, so nothing is allocated for variables until one is set.
+ * The few that do get only a few, so they are kept in small arrays of names and values that are searched from the start,
+ * which is quicker than hashing for that many.
  */
 public class Scope {
+    private static final int FIRST_CAPACITY = 4;
+
     private final Scope parentScope;
-    private final Map<String, Object> variables = new HashMap<>();
+    /**
+     * The names of the variables defined in this scope, in the first variableCount places. null until the first variable is set.
+     */
+    private String[] names;
+    /**
+     * The values of the variables, in the same places as their names.
+     */
+    private Object[] values;
+    private int variableCount;
+    /**
+     * While several threads render with a scope, it and all scopes above it can't be changed.
+     * Scopes below a frozen scope are frozen too, unless they are made for one thread on purpose.
+     */
+    private boolean frozen;
+    /**
+     * Whether this scope belongs to one of several threads that render at the same time, like a concurrent section.
+     * Loops in it are not rendered in parallel again,
+     * so that they don't wait for an executor whose threads may be waiting for them.
+     */
+    private final boolean concurrent;
 
     Scope(Scope parentScope) {
+        this(parentScope, parentScope != null && parentScope.frozen, parentScope != null && parentScope.concurrent);
+    }
+
+    Scope(Scope parentScope, boolean frozen, boolean concurrent) {
         this.parentScope = parentScope;
+        this.frozen = frozen;
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Freeze this scope and the scopes above it, up to the first one that is frozen already.
+     *
+     * @return that first frozen scope, or null if there is none. Pass it to {@link #thaw(Scope)}.
+     */
+    Scope freeze() {
+        var scope = this;
+        while (scope != null && !scope.frozen) {
+            scope.frozen = true;
+            scope = scope.parentScope;
+        }
+        return scope;
+    }
+
+    /**
+     * Undo {@link #freeze()}.
+     */
+    void thaw(Scope frozenAlready) {
+        for (var scope = this; scope != frozenAlready; scope = scope.parentScope) {
+            scope.frozen = false;
+        }
+    }
+
+    boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @return whether other threads are rendering with this scope or the scopes above it.
+     */
+    boolean isRenderedConcurrently() {
+        return frozen || concurrent;
+    }
+
+    private void checkNotFrozen(String name) {
+        if (frozen) {
+            throw new SoutException("Variable %s can't be changed while other threads are rendering with it.", name);
+        }
     }
 
     /**
@@ -22,26 +92,42 @@ public class Scope {
      */
     @SuppressWarnings("unchecked")
     public <T> T getVariable(String name, T def) {
-        var nameScope = findScopeContainingName(requireNonNull(name));
-        if (nameScope == null) {
-            variables.put(name, def);
-            return def;
+        requireNonNull(name);
+        for (var scope = this; scope != null; scope = scope.parentScope) {
+            var index = scope.indexOf(name);
+            if (index >= 0) {
+                return (T) scope.values[index];
+            }
         }
-        return (T) nameScope.variables.get(name);
+        checkNotFrozen(name);
+        add(name, def);
+        return def;
     }
 
     /**
-     * @return the scope where name is defined.
-     * If it hasn't been defined anywhere, null is returned.
+     * @return where name is in this scope's arrays, or -1 if it isn't defined here.
      */
-    private Scope findScopeContainingName(String name) {
-        if (variables.containsKey(requireNonNull(name))) {
-            return this;
+    private int indexOf(String name) {
+        for (int i = 0; i < variableCount; i++) {
+            var candidate = names[i];
+            if (candidate == name || candidate.equals(name)) {
+                return i;
+            }
         }
-        if (parentScope == null) {
-            return null;
+        return -1;
+    }
+
+    private void add(String name, Object value) {
+        if (names == null) {
+            names = new String[FIRST_CAPACITY];
+            values = new Object[FIRST_CAPACITY];
+        } else if (variableCount == names.length) {
+            names = Arrays.copyOf(names, variableCount * 2);
+            values = Arrays.copyOf(values, variableCount * 2);
         }
-        return parentScope.findScopeContainingName(name);
+        names[variableCount] = name;
+        values[variableCount] = value;
+        variableCount++;
     }
 
     /**
@@ -50,19 +136,29 @@ public class Scope {
      * @throws SoutException if name isn't defined in any scope.
      */
     public <T> T updateVariable(String name, T newValue) {
-        var scope = findScopeContainingName(requireNonNull(name));
-        if (scope == null) {
-            throw new SoutException("Variable %s not found.", name);
+        requireNonNull(name);
+        for (var scope = this; scope != null; scope = scope.parentScope) {
+            var index = scope.indexOf(name);
+            if (index >= 0) {
+                scope.checkNotFrozen(name);
+                scope.values[index] = newValue;
+                return newValue;
+            }
         }
-        scope.variables.put(name, newValue);
-        return newValue;
+        throw new SoutException("Variable %s not found.", name);
     }
 
     /**
      * Set a variable to a value in this scope.
      */
     public void setVariable(String name, Object value) {
-        variables.put(requireNonNull(name), value);
+        checkNotFrozen(requireNonNull(name));
+        var index = indexOf(name);
+        if (index >= 0) {
+            values[index] = value;
+        } else {
+            add(name, value);
+        }
     }
 
     /**
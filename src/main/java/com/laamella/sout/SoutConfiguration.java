@@ -1,9 +1,24 @@
 package com.laamella.sout;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static java.util.Objects.requireNonNull;
+
 /**
  * Everything that is configurable.
  */
 public class SoutConfiguration {
+    static final CustomNameRenderer NO_CUSTOM_NAME_RENDERER = (name, parts, model, scope, position, outputWriter) -> false;
+    static final CustomTypeRenderer NO_CUSTOM_TYPE_RENDERER = (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> false;
+    static final CustomIteratorFactory NO_CUSTOM_ITERATOR_FACTORY = (model, scope, position) -> null;
+    static final RenderListener NO_RENDER_LISTENER = new RenderListener() {
+    };
+
     final char openChar;
     final char escapeChar;
     final char closeChar;
@@ -11,6 +26,15 @@ public class SoutConfiguration {
     final CustomNameRenderer customNameRenderer;
     final CustomTypeRenderer customTypeRenderer;
     final CustomIteratorFactory customIteratorFactory;
+    final Map<Class<?>, CustomTypeRenderer> typeRenderers = new LinkedHashMap<>();
+    boolean compiled = false;
+    Executor parallelLoopExecutor = null;
+    int parallelLoopMinimumSize = 0;
+    Executor sectionExecutor = null;
+    int flushThreshold = 8192;
+    RenderListener renderListener = NO_RENDER_LISTENER;
+    boolean measureAllocations = false;
+    private volatile List<Object> settings;
 
     /**
      * @param openChar              the character that opens a name or a nesting, like "{" or "<"
@@ -28,8 +52,158 @@ public class SoutConfiguration {
         this.escapeChar = escapeChar;
         this.closeChar = closeChar;
         this.separatorChar = separatorChar;
-        this.customNameRenderer = customNameRenderer == null ? (name, parts, model, scope, position, outputWriter) -> false : customNameRenderer;
-        this.customTypeRenderer = customTypeRenderer == null ? (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> false : customTypeRenderer;
-        this.customIteratorFactory = customIteratorFactory == null ? (model, scope, position) -> null : customIteratorFactory;
+        this.customNameRenderer = customNameRenderer == null ? NO_CUSTOM_NAME_RENDERER : customNameRenderer;
+        this.customTypeRenderer = customTypeRenderer == null ? NO_CUSTOM_TYPE_RENDERER : customTypeRenderer;
+        this.customIteratorFactory = customIteratorFactory == null ? NO_CUSTOM_ITERATOR_FACTORY : customIteratorFactory;
+        updateSettings();
+    }
+
+    boolean hasCustomNameRenderer() {
+        return customNameRenderer != NO_CUSTOM_NAME_RENDERER;
+    }
+
+    boolean hasCustomTypeRenderer() {
+        return customTypeRenderer != NO_CUSTOM_TYPE_RENDERER || !typeRenderers.isEmpty();
+    }
+
+    /**
+     * @return the custom type renderer, followed by the renderers registered per type if there are any.
+     */
+    CustomTypeRenderer typeRenderer() {
+        if (typeRenderers.isEmpty()) {
+            return customTypeRenderer;
+        }
+        return new TypeRendererRegistry(customTypeRenderer, typeRenderers);
+    }
+
+    /**
+     * @return all settings as they are now, in a value that equals the settings of a configuration that is set up the same.
+     * Custom renderers, executors and listeners compare by identity.
+     */
+    List<Object> settings() {
+        return settings;
+    }
+
+    /**
+     * Every setter calls this, so {@link #settings()} doesn't have to build the settings on every call.
+     */
+    private void updateSettings() {
+        var typeRendererSettings = new ArrayList<Object>();
+        typeRenderers.forEach((type, renderer) -> typeRendererSettings.add(Map.entry(type, renderer)));
+        settings = Arrays.asList(openChar, separatorChar, closeChar, escapeChar,
+                customNameRenderer, customTypeRenderer, customIteratorFactory, typeRendererSettings,
+                compiled, parallelLoopExecutor, parallelLoopMinimumSize, sectionExecutor, flushThreshold,
+                renderListener, measureAllocations);
+    }
+
+    boolean hasCustomIteratorFactory() {
+        return customIteratorFactory != NO_CUSTOM_ITERATOR_FACTORY;
+    }
+
+    /**
+     * Render the values of a type with renderer.
+     * Values whose class has no renderer use the renderer of their nearest superclass,
+     * or else of an interface they implement, so that renderer is found once per class instead of on every render.
+     * These renderers are asked after the custom type renderer that was passed to the constructor.
+     *
+     * @param type     the class or interface to render.
+     * @param renderer the renderer for values of type. null removes the renderer for type.
+     */
+    public void setTypeRenderer(Class<?> type, CustomTypeRenderer renderer) {
+        requireNonNull(type);
+        if (renderer == null) {
+            typeRenderers.remove(type);
+        } else {
+            typeRenderers.put(type, renderer);
+        }
+        updateSettings();
+    }
+
+    /**
+     * @param compiled when true, templates are compiled to classes while parsing.
+     *                 This takes more time and memory up front,
+     *                 but pays off for templates that are rendered very often.
+     *                 Typed templates gain the most, since their bound names are compiled to direct field and method calls.
+     *                 Off by default.
+     */
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+        updateSettings();
+    }
+
+    /**
+     * Render loops over large arrays and random access lists in parallel.
+     * The elements are split in chunks that are rendered on executor, each into its own buffer,
+     * and the buffers are written to the output in order, so the output is the same as when rendering serially.
+     * While a loop renders in parallel, {@link Scope} variables can't be changed, and trying to do so throws a {@link SoutException}.
+     * Custom renderers that are used in the loop need to be thread safe.
+     * Loops inside a parallel loop are rendered serially, and so are loops rendered by {@link SoutTemplate#renderAsync}.
+     *
+     * @param executor    where the chunks are rendered, like a ForkJoinPool. Don't render with this executor's own threads.
+     *                    null turns parallel loops off, which is the default.
+     * @param minimumSize loops over fewer elements than this are rendered serially.
+     */
+    public void setParallelLoops(Executor executor, int minimumSize) {
+        this.parallelLoopExecutor = executor;
+        this.parallelLoopMinimumSize = minimumSize;
+        updateSettings();
+    }
+
+    /**
+     * Render the nestings at the top level of templates, like the independent sections of a dashboard, concurrently.
+     * Each is rendered into its own buffer on executor, and everything is written to the output in template order.
+     * Every top level part of the template gets a scope of its own, so {@link Scope} variables defined in one section
+     * are not visible in the others.
+     * Variables in the global scope can't be changed while the sections render,
+     * and trying to do so throws a {@link SoutException}.
+     * Custom renderers need to be thread safe.
+     * Loops inside sections are not rendered in parallel, see {@link #setParallelLoops(Executor, int)}.
+     * {@link SoutTemplate#renderAsync} renders the sections one after the other.
+     *
+     * @param executor where the sections are rendered. Don't render with this executor's own threads.
+     *                 null turns concurrent sections off, which is the default.
+     */
+    public void setConcurrentSections(Executor executor) {
+        this.sectionExecutor = executor;
+        updateSettings();
+    }
+
+    /**
+     * @param flushThreshold when rendering to a Writer, output is collected in a buffer of this many characters,
+     *                       which is written to the Writer when it is full, and at the end of the render.
+     *                       The Writer is not flushed.
+     *                       0 writes everything to the Writer as soon as it is rendered.
+     *                       8192 by default.
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        if (flushThreshold < 0) {
+            throw new IllegalArgumentException("The flush threshold can't be negative.");
+        }
+        this.flushThreshold = flushThreshold;
+        updateSettings();
+    }
+
+    /**
+     * Tell renderListener what templates do while rendering, for metrics like render counts and latencies.
+     * Without a listener, templates measure nothing. Off by default.
+     *
+     * @param renderListener     the listener. It needs to be thread safe. null turns metrics off.
+     * @param measureAllocations also measure how many bytes the rendering thread allocates per render,
+     *                           when the JVM supports it, has the jdk.management module,
+     *                           and has thread allocation measuring enabled, which it is by default.
+     *                           This costs a bit of time on every render.
+     */
+    public void setRenderListener(RenderListener renderListener, boolean measureAllocations) {
+        this.renderListener = renderListener == null ? NO_RENDER_LISTENER : renderListener;
+        this.measureAllocations = measureAllocations;
+        updateSettings();
+    }
+
+    /**
+     * @return the metrics for a new template: ones that measure nothing when there is no listener.
+     */
+    RenderMetrics renderMetrics(SoutTemplate template) {
+        return renderListener == NO_RENDER_LISTENER ? RenderMetrics.NONE
+                : new ListeningRenderMetrics(template, renderListener, measureAllocations);
     }
 }
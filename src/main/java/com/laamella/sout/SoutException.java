@@ -8,6 +8,10 @@ public class SoutException extends RuntimeException {
         super(String.format(position + " Exception:", position), wrapped);
     }
 
+    public SoutException(Position position, Throwable wrapped, String message, Object... args) {
+        super(String.format(position + " " + message, args), wrapped);
+    }
+
     public SoutException(Position position, String message, Object... args) {
         super(String.format(position + " " + message, args));
     }
@@ -15,4 +19,11 @@ public class SoutException extends RuntimeException {
     public SoutException(String message, Object... args) {
         super(String.format(message, args));
     }
+
+    /**
+     * For problems that don't come from a specific position in a template.
+     */
+    public SoutException(Throwable wrapped, String message, Object... args) {
+        super(String.format(message, args), wrapped);
+    }
 }
@@ -1,7 +1,17 @@
 package com.laamella.sout;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Objects.requireNonNull;
 
@@ -9,7 +19,30 @@ import static java.util.Objects.requireNonNull;
  * A template. The main class of the sout library.
  */
 public class SoutTemplate {
+    private static final AtomicLong templateCount = new AtomicLong();
+
+    /**
+     * Identifies this template in {@link FlightRecorderEvents}.
+     */
+    private final long id = templateCount.incrementAndGet();
+    /**
+     * Where the template came from, for {@link FlightRecorderEvents}. null when not known.
+     */
+    private final String source;
     private final ContainerRenderer rootRenderer;
+    private final Class<?> modelType;
+    private final int flushThreshold;
+    private final RenderMetrics metrics;
+    /**
+     * The total size of the text at the top level of the template, which is always in the output.
+     */
+    private final int staticTextSize;
+    /**
+     * The exponentially weighted moving average of the output sizes, or -1 before the first render.
+     * Every render counts for 1 / 2^{@link #AVERAGE_WEIGHT_SHIFT}.
+     */
+    private volatile int averageOutputSize = -1;
+    private static final int AVERAGE_WEIGHT_SHIFT = 2;
 
     /**
      * Create a new template. It is parsed immediately, so be prepared to handle exceptions about invalid templates here.
@@ -17,14 +50,76 @@ public class SoutTemplate {
      * @throws SoutException when something goes wrong with parsing the template.
      */
     public SoutTemplate(Reader templateReader, SoutConfiguration configuration) {
+        this(templateReader, configuration, null);
+    }
+
+    /**
+     * Create a new typed template: one that will only be rendered with models of class modelType.
+     * Names are looked up on modelType while parsing,
+     * following the types of fields and methods (and the element types of arrays and generic collections) as far as they are known.
+     * Names that can't be found on a concrete class fail here already, unless there is a custom name renderer that might handle them.
+     * Where the type isn't known, like for Object or a Map of Objects, names are resolved while rendering as usual.
+     *
+     * @param modelType the class of the models this template will be rendered with. null makes this an untyped template.
+     * @throws SoutException when something goes wrong with parsing the template, or a name can't be found on the model type.
+     */
+    public SoutTemplate(Reader templateReader, SoutConfiguration configuration, Class<?> modelType) {
+        this(templateReader, configuration, modelType, null);
+    }
+
+    /**
+     * @param source where the template came from, like its path or its name in a {@link SoutTemplateCache}. Can be null.
+     */
+    SoutTemplate(Reader templateReader, SoutConfiguration configuration, Class<?> modelType, String source) {
         requireNonNull(configuration);
         requireNonNull(templateReader);
+        var nameResolver = new NameResolver();
+        metrics = configuration.renderMetrics(this);
         var parser = new SoutTemplateParser(
                 configuration.openChar, configuration.separatorChar, configuration.closeChar, configuration.escapeChar,
+                nameResolver,
                 new IteratorFactory(configuration.customIteratorFactory),
                 configuration.customNameRenderer,
-                configuration.customTypeRenderer);
-        rootRenderer = parser.parseTemplate(templateReader);
+                configuration.typeRenderer(),
+                configuration.parallelLoopExecutor,
+                configuration.parallelLoopMinimumSize,
+                metrics);
+        this.source = source;
+        var parsedRenderer = parser.parseTemplate(templateReader, source);
+        if (configuration.sectionExecutor != null) {
+            parsedRenderer = new ConcurrentContainerRenderer(parsedRenderer.position, parsedRenderer.children, configuration.sectionExecutor);
+        }
+        this.modelType = modelType;
+        this.flushThreshold = configuration.flushThreshold;
+        this.staticTextSize = parsedRenderer.children.stream()
+                .filter(child -> child instanceof TextRenderer)
+                .mapToInt(child -> ((TextRenderer) child).text.length())
+                .sum();
+        if (modelType != null) {
+            var hasCustomRenderers = configuration.hasCustomNameRenderer() || configuration.hasCustomTypeRenderer() || configuration.hasCustomIteratorFactory();
+            new TypeBinder(nameResolver, !configuration.hasCustomNameRenderer(), !hasCustomRenderers).bind(parsedRenderer, modelType);
+        }
+        rootRenderer = configuration.compiled ? TemplateCompiler.compileAll(parsedRenderer) : parsedRenderer;
+    }
+
+    /**
+     * Create a new template from a file. The file is mapped into memory and parsed from there.
+     * It is parsed immediately, so be prepared to handle exceptions about invalid templates here.
+     *
+     * @param templatePath the template file.
+     * @param charset      the charset of the template file.
+     * @throws SoutException when something goes wrong with reading or parsing the template.
+     */
+    public SoutTemplate(Path templatePath, Charset charset, SoutConfiguration configuration) {
+        this(mappedReader(requireNonNull(templatePath), requireNonNull(charset)), configuration, null, templatePath.toString());
+    }
+
+    private static Reader mappedReader(Path templatePath, Charset charset) {
+        try {
+            return new MappedTemplateReader(templatePath, charset);
+        } catch (IOException e) {
+            throw new SoutException(e, "Can't read template %s.", templatePath);
+        }
     }
 
     /**
@@ -32,10 +127,203 @@ public class SoutTemplate {
      *
      * @param data         the model containing the data that should be filled in the template.
      * @param outputWriter where the result will be written.
+     *                     Output is collected in a buffer and written to it in chunks, see {@link SoutConfiguration#setFlushThreshold(int)}.
+     *                     It is not flushed or closed.
+     *                     When rendering fails, what was rendered before the failure has been written to it.
      * @throws SoutException when something goes wrong with rendering the template.
      */
     public void render(Object data, Writer outputWriter) {
         requireNonNull(outputWriter);
+        var event = FlightRecorderEvents.RENDER.begin();
+        var startTime = metrics.startTime();
+        var startAllocatedBytes = metrics.allocatedBytes();
+        if (flushThreshold == 0 || outputWriter instanceof OutputSink) {
+            renderRoot(data, outputWriter);
+            metrics.rendered(startTime, startAllocatedBytes, -1, -1);
+            recordRender(event, -1, -1);
+            return;
+        }
+        var sink = new WriterSink(outputWriter, flushThreshold);
+        try {
+            renderRoot(data, sink);
+            sink.finish();
+            recordOutputSize(sink.charactersWritten());
+            metrics.rendered(startTime, startAllocatedBytes, sink.charactersWritten(), -1);
+            recordRender(event, sink.charactersWritten(), -1);
+        } catch (IOException e) {
+            throw new SoutException(rootRenderer.position, e);
+        } catch (RuntimeException | Error e) {
+            // Like an unbuffered render, leave everything that was rendered before the failure in outputWriter.
+            try {
+                sink.finish();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            sink.release();
+        }
+    }
+
+    /**
+     * Render a template to a String.
+     * The output is collected in a StringBuilder that is kept per thread,
+     * and that gets room for the {@link #estimatedOutputSize()} up front,
+     * so usually the only copy is the one that makes the String.
+     *
+     * @param data the model containing the data that should be filled in the template.
+     * @return the rendered template.
+     * @throws SoutException when something goes wrong with rendering the template.
+     */
+    public String renderToString(Object data) {
+        var event = FlightRecorderEvents.RENDER.begin();
+        var startTime = metrics.startTime();
+        var startAllocatedBytes = metrics.allocatedBytes();
+        var builder = StringBuilderSink.takeSpare();
+        try {
+            builder.ensureCapacity(bufferSize());
+            renderRoot(data, new StringBuilderSink(builder));
+            recordOutputSize(builder.length());
+            var output = builder.toString();
+            metrics.rendered(startTime, startAllocatedBytes, output.length(), -1);
+            recordRender(event, output.length(), -1);
+            return output;
+        } finally {
+            StringBuilderSink.keepSpare(builder);
+        }
+    }
+
+    /**
+     * Render a template to the end of a StringBuilder.
+     *
+     * @param data   the model containing the data that should be filled in the template.
+     * @param output where the result will be appended.
+     * @throws SoutException when something goes wrong with rendering the template.
+     */
+    public void render(Object data, StringBuilder output) {
+        requireNonNull(output);
+        var event = FlightRecorderEvents.RENDER.begin();
+        var startTime = metrics.startTime();
+        var startAllocatedBytes = metrics.allocatedBytes();
+        var start = output.length();
+        output.ensureCapacity(start + bufferSize());
+        renderRoot(data, new StringBuilderSink(output));
+        recordOutputSize(output.length() - start);
+        metrics.rendered(startTime, startAllocatedBytes, output.length() - start, -1);
+        recordRender(event, output.length() - start, -1);
+    }
+
+    /**
+     * @param event what {@link FlightRecorderEvents.EventKind#begin()} returned for the render.
+     */
+    private void recordRender(Object event, long characters, long bytes) {
+        if (event != null) {
+            FlightRecorderEvents.RENDER.finish(event, id, source, characters, bytes);
+        }
+    }
+
+    /**
+     * @return the number of characters that a render of this template is expected to output.
+     * This is a moving average of the sizes of earlier renders to Writers, Strings and StringBuilders,
+     * and at least the size of the text at the top level of the template.
+     */
+    public int estimatedOutputSize() {
+        return Math.max(staticTextSize, averageOutputSize);
+    }
+
+    private void recordOutputSize(long size) {
+        var clampedSize = (int) Math.min(size, Integer.MAX_VALUE);
+        var average = averageOutputSize;
+        // Racing renders may lose each other's update, which doesn't matter for an estimate.
+        averageOutputSize = average < 0 ? clampedSize : average + ((clampedSize - average) >> AVERAGE_WEIGHT_SHIFT);
+    }
+
+    /**
+     * @return the size for a buffer for the output: the estimate with some room to spare, since outputs vary a bit.
+     */
+    private int bufferSize() {
+        var estimate = estimatedOutputSize();
+        return (int) Math.min(estimate + estimate / 8L, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Render a template to bytes.
+     * The static text of the template is encoded only once per charset, instead of on every render.
+     * The stream is not flushed or closed.
+     *
+     * @param data         the model containing the data that should be filled in the template.
+     * @param outputStream where the result will be written.
+     * @param charset      the charset to encode the result in.
+     * @throws SoutException when something goes wrong with rendering the template.
+     */
+    public void render(Object data, OutputStream outputStream, Charset charset) {
+        requireNonNull(outputStream);
+        requireNonNull(charset);
+        var event = FlightRecorderEvents.RENDER.begin();
+        var startTime = metrics.startTime();
+        var startAllocatedBytes = metrics.allocatedBytes();
+        var encodingWriter = new EncodingWriter(outputStream, charset);
+        renderRoot(data, encodingWriter);
+        try {
+            encodingWriter.finish();
+        } catch (IOException e) {
+            throw new SoutException(rootRenderer.position, e);
+        }
+        metrics.rendered(startTime, startAllocatedBytes, -1, encodingWriter.bytesWritten());
+        recordRender(event, -1, encodingWriter.bytesWritten());
+    }
+
+    /**
+     * Render a template without waiting for async values in the model.
+     * When a name resolves to a {@link CompletionStage}, the rest of the template is rendered first,
+     * and the part that needs the value is rendered when it has completed.
+     * The output is written in order: everything up to the first value that isn't there yet, then more as values complete.
+     * That way the output waits for the slowest value, not for all values one after the other.
+     * <p>
+     * Only the last simple name of a complex name can be async: use a nesting like {user|{name}} when "user" is async.
+     * The parts that wait for a value are rendered after the rest of the template, so they see the {@link Scope} as it is then.
+     * Rendering happens on one thread at a time, but that may be the thread that completes a value.
+     *
+     * @param data         the model containing the data that should be filled in the template.
+     * @param outputWriter where the result will be written. It is not flushed or closed.
+     * @return a stage that completes when everything has been written, or completes exceptionally with a {@link SoutException}.
+     */
+    public CompletionStage<Void> renderAsync(Object data, Writer outputWriter) {
+        requireNonNull(outputWriter);
+        var asyncWriter = new AsyncWriter();
+        try {
+            renderRoot(data, asyncWriter);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return asyncWriter.writeTo(outputWriter);
+    }
+
+    /**
+     * Render a template for a reactive subscriber.
+     * Every subscriber gets its own render, which runs on a thread of executor.
+     * The output is encoded into buffers of a few kilobytes, and rendering waits while the subscriber doesn't request more,
+     * so memory use doesn't grow with the size of the output.
+     * Collections that are iterated lazily, like Streams and Iterators, are only iterated as far as the subscriber requests.
+     * Cancelling the subscription stops the render.
+     *
+     * @param data     the model containing the data that should be filled in the template.
+     * @param charset  the charset to encode the result in.
+     * @param executor where the renders run. A render blocks its thread while its subscriber hasn't requested more,
+     *                 so the executor needs a free thread for every active subscription.
+     *                 Don't use a pool of few threads that others need.
+     * @return a publisher that renders the template for every subscriber. Rendering errors are passed to the subscriber as {@link SoutException}s.
+     */
+    public Flow.Publisher<ByteBuffer> renderPublisher(Object data, Charset charset, Executor executor) {
+        requireNonNull(charset);
+        requireNonNull(executor);
+        return new RenderPublisher(outputWriter -> renderRoot(data, outputWriter), charset, executor);
+    }
+
+    private void renderRoot(Object data, Writer outputWriter) {
+        if (modelType != null && data != null && !modelType.isInstance(data)) {
+            throw new SoutException("This template renders %s, not %s.", modelType.getName(), data.getClass().getName());
+        }
         rootRenderer.render(data, new Scope(null), outputWriter);
     }
 
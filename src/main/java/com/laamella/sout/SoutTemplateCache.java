@@ -0,0 +1,188 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A thread safe cache of parsed templates, so they can be shared between threads and requests.
+ * <p>
+ * Templates are loaded by name with the loader, and are cached by name and {@link SoutConfiguration}.
+ * Changing a configuration after getting templates with it makes the cache load them again with the new settings.
+ * When the same template is requested by several threads at once, it is loaded and parsed only once.
+ * When there are more than maximumSize templates, about the least recently used one is dropped.
+ * Finding a template takes no locks.
+ */
+public class SoutTemplateCache {
+    private final Function<String, Reader> loader;
+    private final int maximumSize;
+    private final ConcurrentMap<Key, Entry> templates = new ConcurrentHashMap<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Configurations can be changed after templates were made with them,
+     * so the key also holds the settings at the time, and a changed configuration gets new templates.
+     */
+    private static final class Key {
+        final String name;
+        final SoutConfiguration configuration;
+        final List<Object> settings;
+        final int hash;
+
+        Key(String name, SoutConfiguration configuration) {
+            this.name = name;
+            this.configuration = configuration;
+            this.settings = configuration.settings();
+            this.hash = Objects.hash(name, System.identityHashCode(configuration), settings);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            var other = (Key) o;
+            return name.equals(other.name) && configuration == other.configuration && settings.equals(other.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A template that is loaded, or still loading, and when it was last used.
+     * lastUsed is written without synchronization: the eviction order only needs to be about right.
+     */
+    private static final class Entry {
+        final FutureTask<SoutTemplate> task;
+        volatile long lastUsed = System.nanoTime();
+
+        Entry(FutureTask<SoutTemplate> task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * @param loader      gives a Reader for the template with the given name, or null if there is no such template.
+     *                    The cache closes the Reader after parsing.
+     * @param maximumSize the maximum amount of templates to keep.
+     */
+    public SoutTemplateCache(Function<String, Reader> loader, int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize should be at least 1.");
+        }
+        this.loader = requireNonNull(loader);
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @return the template with this name, parsed with this configuration.
+     * @throws SoutException when the template can't be found, loaded or parsed.
+     */
+    public SoutTemplate get(String name, SoutConfiguration configuration) {
+        var key = new Key(requireNonNull(name), requireNonNull(configuration));
+        var created = new Entry[1];
+        var entry = templates.computeIfAbsent(key, k -> created[0] = new Entry(new FutureTask<>(() -> load(name, configuration))));
+        if (entry == created[0]) {
+            missCount.increment();
+            evict();
+            // Other threads asking for the same template wait for this one.
+            entry.task.run();
+        } else {
+            hitCount.increment();
+            entry.lastUsed = System.nanoTime();
+        }
+        try {
+            return entry.task.get();
+        } catch (ExecutionException e) {
+            // Don't remember failures.
+            templates.remove(key, entry);
+            if (e.getCause() instanceof SoutException) {
+                throw (SoutException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new SoutException(e.getCause(), "Loading template %s failed.", name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SoutException("Interrupted while waiting for template %s.", name);
+        }
+    }
+
+    /**
+     * Drops the least recently used templates until there are no more than maximumSize.
+     * Only called when a template was added, so finding templates doesn't pay for it.
+     */
+    private void evict() {
+        while (templates.size() > maximumSize) {
+            Key oldestKey = null;
+            Entry oldest = null;
+            for (var candidate : templates.entrySet()) {
+                var value = candidate.getValue();
+                if (oldest == null || value.lastUsed - oldest.lastUsed < 0) {
+                    oldestKey = candidate.getKey();
+                    oldest = value;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            if (templates.remove(oldestKey, oldest)) {
+                evictionCount.increment();
+            }
+        }
+    }
+
+    private SoutTemplate load(String name, SoutConfiguration configuration) {
+        try (var reader = loader.apply(name)) {
+            if (reader == null) {
+                throw new SoutException("Template %s not found.", name);
+            }
+            return new SoutTemplate(reader, configuration, null, name);
+        } catch (IOException e) {
+            throw new SoutException(e, "Can't read template %s.", name);
+        }
+    }
+
+    /**
+     * @return the amount of templates in the cache, including the ones that are still loading.
+     */
+    public int size() {
+        return templates.size();
+    }
+
+    /**
+     * @return how often a template was found in the cache.
+     */
+    public long hitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return how often a template had to be loaded.
+     */
+    public long missCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return how often a template was dropped to make room for another one.
+     */
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+}
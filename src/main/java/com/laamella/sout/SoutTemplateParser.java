@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Parses a template to an AST. See {@link Renderer}.
@@ -13,38 +14,63 @@ class SoutTemplateParser {
     private final int separatorChar;
     private final int closeChar;
     private final int escapeChar;
-    private final NameResolver nameResolver = new NameResolver();
+    private final NameResolver nameResolver;
     private final IteratorFactory iteratorFactory;
+    private final NestingDispatch nestingDispatch;
     private final CustomNameRenderer customNameRenderer;
     private final CustomTypeRenderer customTypeRenderer;
+    private final Executor parallelLoopExecutor;
+    private final int parallelLoopMinimumSize;
+    private final RenderMetrics metrics;
 
     public SoutTemplateParser(
             int openChar, int separatorChar, int closeChar, int escapeChar,
+            NameResolver nameResolver,
             IteratorFactory iteratorFactory,
             CustomNameRenderer customNameRenderer,
-            CustomTypeRenderer customTypeRenderer) {
+            CustomTypeRenderer customTypeRenderer,
+            Executor parallelLoopExecutor,
+            int parallelLoopMinimumSize,
+            RenderMetrics metrics) {
         this.openChar = openChar;
         this.separatorChar = separatorChar;
         this.closeChar = closeChar;
         this.escapeChar = escapeChar;
+        this.nameResolver = nameResolver;
         this.iteratorFactory = iteratorFactory;
         this.customNameRenderer = customNameRenderer;
         this.customTypeRenderer = customTypeRenderer;
+        this.nestingDispatch = iteratorFactory.nestingDispatch(customTypeRenderer);
+        this.parallelLoopExecutor = parallelLoopExecutor;
+        this.parallelLoopMinimumSize = parallelLoopMinimumSize;
+        this.metrics = metrics;
     }
 
     enum State {READING_NAME, READING_TEXT}
 
+    /**
+     * Reads the template through a char array buffer, and keeps track of where we are in it.
+     * Positions are kept as ints, and only turned into {@link Position}s for nodes and errors.
+     */
     static class Context {
-        final Reader reader;
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int next = 0, end = 0;
+        private boolean endOfFile = false;
+        private long characters = 0;
         int row = 1, column = 0;
-        private Position lastPosition = new Position(1, 1);
+        private int lastRow = 1, lastColumn = 1;
 
         Context(Reader reader) {
             this.reader = reader;
         }
 
         public int read() throws IOException {
-            int c = reader.read();
+            if (next == end && !fill()) {
+                column++;
+                return -1;
+            }
+            int c = buffer[next++];
             if (c == '\n') {
                 row++;
                 column = 1;
@@ -54,9 +80,59 @@ class SoutTemplateParser {
             return c;
         }
 
+        /**
+         * Append everything up to the next special character or the end of the template to text,
+         * without looking at the characters one call at a time.
+         */
+        void readPlainText(TextBuffer text, int openChar, int separatorChar, int closeChar, int escapeChar) throws IOException {
+            while (next < end || fill()) {
+                int start = next;
+                int i = next;
+                for (; i < end; i++) {
+                    char c = buffer[i];
+                    if (c == openChar || c == separatorChar || c == closeChar || c == escapeChar) {
+                        break;
+                    }
+                    if (c == '\n') {
+                        row++;
+                        column = 1;
+                    } else {
+                        column++;
+                    }
+                }
+                text.append(buffer, start, i - start);
+                next = i;
+                if (i < end) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return whether there are new characters in the buffer.
+         */
+        private boolean fill() throws IOException {
+            if (endOfFile) {
+                return false;
+            }
+            int n;
+            do {
+                n = reader.read(buffer, 0, buffer.length);
+            } while (n == 0);
+            if (n < 0) {
+                endOfFile = true;
+                return false;
+            }
+            next = 0;
+            end = n;
+            characters += n;
+            return true;
+        }
+
         public Position lastPosition() {
-            Position lastPosition = this.lastPosition;
-            this.lastPosition = new Position(column, row);
+            var lastPosition = new Position(lastColumn, lastRow);
+            lastColumn = column;
+            lastRow = row;
             return lastPosition;
         }
 
@@ -65,14 +141,22 @@ class SoutTemplateParser {
         }
     }
 
-    ContainerRenderer parseTemplate(Reader template) {
+    /**
+     * @param source where the template came from, for the {@link FlightRecorderEvents#PARSE} event. Can be null.
+     */
+    ContainerRenderer parseTemplate(Reader template, String source) {
+        var event = FlightRecorderEvents.PARSE.begin();
         var renderers = new ArrayList<Renderer>();
         var context = new Context(template);
         int c = parseRenderersIntoList(renderers, false, context);
         if (c == closeChar) {
             throw new SoutException(context.thisPosition(), "Unexpected closing %c at top level.", c);
         }
-        return new ContainerRenderer(new Position(0, 0), renderers);
+        var rootRenderer = new ContainerRenderer(new Position(0, 0), renderers);
+        if (event != null) {
+            FlightRecorderEvents.PARSE.finish(event, source, context.characters, FlightRecorderEvents.countNodes(rootRenderer));
+        }
+        return rootRenderer;
     }
 
     private int parseRenderersIntoList(List<Renderer> renderers, boolean terminateOnSeparator, Context context) {
@@ -82,6 +166,9 @@ class SoutTemplateParser {
         int c;
         while (true) {
             try {
+                if (state == State.READING_TEXT && !nextCharIsLiteral) {
+                    context.readPlainText(text, openChar, separatorChar, closeChar, escapeChar);
+                }
                 c = context.read();
             } catch (IOException e) {
                 throw new SoutException(context.thisPosition(), e);
@@ -89,7 +176,11 @@ class SoutTemplateParser {
             if (c == -1) {
                 switch (state) {
                     case READING_NAME -> throw new SoutException(context.thisPosition(), "Name %s was not closed before end of file.", text.consume());
-                    case READING_TEXT -> renderers.add(new TextRenderer(text.consume(), context.lastPosition()));
+                    case READING_TEXT -> {
+                        if (text.isNotEmpty()) {
+                            renderers.add(new TextRenderer(text.consume(), context.lastPosition()));
+                        }
+                    }
                 }
                 return c;
             } else if (c == escapeChar && !nextCharIsLiteral) {
@@ -130,13 +221,13 @@ class SoutTemplateParser {
                     }
                     case READING_NAME -> {
                         if (c == separatorChar) {
-                            NestedRenderer nestedNode = parseNestingRenderer(text.consume(), context);
+                            NestedRenderer nestedNode = parseNestingRenderer(new ComplexName(text.consume()), context);
                             renderers.add(nestedNode);
                             state = State.READING_TEXT;
                         } else if (c == openChar) {
                             throw new SoutException(context.thisPosition(), "Unexpected open %c in name.", c);
                         } else if (c == closeChar) {
-                            renderers.add(new NameRenderer(text.consume(), context.lastPosition(), nameResolver, customNameRenderer, customTypeRenderer));
+                            renderers.add(new NameRenderer(new ComplexName(text.consume()), context.lastPosition(), nameResolver, customNameRenderer, customTypeRenderer, metrics));
                             state = State.READING_TEXT;
                         } else {
                             text.append(c);
@@ -147,7 +238,7 @@ class SoutTemplateParser {
         }
     }
 
-    private NestedRenderer parseNestingRenderer(String name, Context context) {
+    private NestedRenderer parseNestingRenderer(ComplexName name, Context context) {
         int closeChar;
         var nestedParts = new ArrayList<ContainerRenderer>();
         do {
@@ -159,6 +250,7 @@ class SoutTemplateParser {
             throw new SoutException(context.thisPosition(), "End of template while reading a nesting.");
         }
         Renderable[] parts = nestedParts.stream().map(Renderable.class::cast).toArray(Renderable[]::new);
-        return new NestedRenderer(name, context.lastPosition(), nameResolver, customNameRenderer, customTypeRenderer, iteratorFactory, parts);
+        return new NestedRenderer(name, context.lastPosition(), nameResolver, customNameRenderer, customTypeRenderer, iteratorFactory, nestingDispatch,
+                parallelLoopExecutor, parallelLoopMinimumSize, metrics, parts);
     }
 }
@@ -0,0 +1,92 @@
+package com.laamella.sout;
+
+import java.io.Writer;
+
+/**
+ * Writes straight into a StringBuilder, without the locking of a StringWriter.
+ * <p>
+ * Every thread keeps a spare StringBuilder for {@link SoutTemplate#renderToString(Object)},
+ * so that its array doesn't have to grow from scratch on every render.
+ */
+final class StringBuilderSink extends OutputSink {
+    /**
+     * Bigger StringBuilders are not kept, so that one huge render doesn't keep a lot of memory in use.
+     */
+    private static final int MAXIMUM_SPARE_CAPACITY = 1 << 20;
+    private static final ThreadLocal<StringBuilder> SPARE_BUILDERS = new ThreadLocal<>();
+
+    private final StringBuilder builder;
+
+    StringBuilderSink(StringBuilder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * @return the spare StringBuilder of this thread, empty. Give it back with {@link #keepSpare(StringBuilder)}.
+     */
+    static StringBuilder takeSpare() {
+        var builder = SPARE_BUILDERS.get();
+        if (builder == null) {
+            return new StringBuilder();
+        }
+        // Templates rendering templates on the same thread don't get the same builder.
+        SPARE_BUILDERS.set(null);
+        return builder;
+    }
+
+    static void keepSpare(StringBuilder builder) {
+        if (builder.capacity() <= MAXIMUM_SPARE_CAPACITY) {
+            builder.setLength(0);
+            SPARE_BUILDERS.set(builder);
+        }
+    }
+
+    @Override
+    public void write(int c) {
+        builder.append((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        builder.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        builder.append(str, off, off + len);
+    }
+
+    @Override
+    public void write(String str) {
+        builder.append(str);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+        builder.append(csq);
+        return this;
+    }
+
+    @Override
+    void writeLong(long value) {
+        builder.append(value);
+    }
+
+    @Override
+    void writeDouble(double value) {
+        builder.append(value);
+    }
+
+    @Override
+    void writeFloat(float value) {
+        builder.append(value);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
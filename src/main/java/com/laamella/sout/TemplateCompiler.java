@@ -0,0 +1,348 @@
+package com.laamella.sout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a {@link ContainerRenderer} into a hidden class that renders all its children in one straight method,
+ * instead of looping over them.
+ * Every child is kept in a final field of its exact class,
+ * so each render call is statically bound and the JIT can inline the whole container.
+ * Text is passed to its renderer as a string constant,
+ * and names that the {@link TypeBinder} bound to a field or method get the handle for it from a final field.
+ * Hidden classes have trusted final fields, so the JIT sees that handle as a constant too,
+ * and inlines the field or method like a direct call.
+ * <p>
+ * The generated class looks like this:
+ * <pre>
+ * final class CompiledContainer extends ContainerRenderer {
+ *     private final TextRenderer child0;
+ *     private final NameRenderer child1;
+ *     private final NestedRenderer child2;
+ *     private final MethodHandle handle1;
+ *
+ *     CompiledContainer(Position position, List children, MethodHandle[] handles) {
+ *         super(position, children);
+ *         child0 = (TextRenderer) children.get(0);
+ *         child1 = (NameRenderer) children.get(1);
+ *         child2 = (NestedRenderer) children.get(2);
+ *         handle1 = handles[1];
+ *     }
+ *
+ *     public final void render(Object model, Scope scope, Writer outputWriter) {
+ *         child0.renderText("Hello ", outputWriter);
+ *         child1.renderWithHandle(handle1, model, scope, outputWriter);
+ *         child2.render(model, scope, outputWriter);
+ *     }
+ * }
+ * </pre>
+ */
+final class TemplateCompiler {
+    /**
+     * Above this many children the render method would get too big for the JIT to compile,
+     * so the container is left as it is.
+     */
+    static final int MAX_CHILDREN = 512;
+
+    private static final String COMPILED = "com/laamella/sout/CompiledContainer";
+    private static final String CONTAINER = "com/laamella/sout/ContainerRenderer";
+    private static final String TEXT = "com/laamella/sout/TextRenderer";
+    private static final String NAME = "com/laamella/sout/NameRenderer";
+    private static final String HANDLE_DESCRIPTOR = "Ljava/lang/invoke/MethodHandle;";
+    private static final String SUPER_CONSTRUCTOR_DESCRIPTOR = "(Lcom/laamella/sout/Position;Ljava/util/List;)V";
+    private static final String CONSTRUCTOR_DESCRIPTOR = "(Lcom/laamella/sout/Position;Ljava/util/List;[Ljava/lang/invoke/MethodHandle;)V";
+    private static final String RENDER_DESCRIPTOR = "(Ljava/lang/Object;Lcom/laamella/sout/Scope;Ljava/io/Writer;)V";
+    private static final String RENDER_TEXT_DESCRIPTOR = "(Ljava/lang/String;Ljava/io/Writer;)V";
+    private static final String RENDER_WITH_HANDLE_DESCRIPTOR = "(Ljava/lang/invoke/MethodHandle;Ljava/lang/Object;Lcom/laamella/sout/Scope;Ljava/io/Writer;)V";
+
+    private TemplateCompiler() {
+    }
+
+    /**
+     * Compiles container and all the containers in the parts of its nestings.
+     * Do this after the {@link TypeBinder} is done, so that the names it bound can be compiled in.
+     *
+     * @return a compiled version of container, or container itself if compiling it wouldn't help.
+     */
+    static ContainerRenderer compileAll(ContainerRenderer container) {
+        for (var child : container.children) {
+            if (child instanceof NestedRenderer) {
+                var parts = ((NestedRenderer) child).parts;
+                for (int i = 0; i < parts.length; i++) {
+                    if (parts[i] instanceof ContainerRenderer) {
+                        parts[i] = compileAll((ContainerRenderer) parts[i]);
+                    }
+                }
+            }
+        }
+        // Subclasses, like the ConcurrentContainerRenderer, render in their own way.
+        if (container.getClass() != ContainerRenderer.class) {
+            return container;
+        }
+        return compile(container);
+    }
+
+    /**
+     * @return a compiled version of container, or container itself if compiling it wouldn't help.
+     */
+    static ContainerRenderer compile(ContainerRenderer container) {
+        var children = container.children;
+        if (children.size() < 2 || children.size() > MAX_CHILDREN) {
+            return container;
+        }
+        var handles = new MethodHandle[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i) instanceof NameRenderer) {
+                handles[i] = ((NameRenderer) children.get(i)).boundHandle();
+            }
+        }
+        byte[] classFile;
+        try {
+            classFile = generate(children, handles);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            var compiledClass = MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+            return (ContainerRenderer) compiledClass
+                    .getDeclaredConstructor(Position.class, List.class, MethodHandle[].class)
+                    .newInstance(container.position, children, handles);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't load the compiled container for " + container.position, e);
+        }
+    }
+
+    private static byte[] generate(List<Renderer> children, MethodHandle[] handles) throws IOException {
+        var pool = new ConstantPool();
+        int thisClass = pool.classInfo(COMPILED);
+        int superClass = pool.classInfo(CONTAINER);
+        int code = pool.utf8("Code");
+        int handleType = pool.utf8(HANDLE_DESCRIPTOR);
+        int superConstructor = pool.member(10, CONTAINER, "<init>", SUPER_CONSTRUCTOR_DESCRIPTOR);
+        int listGet = pool.member(11, "java/util/List", "get", "(I)Ljava/lang/Object;");
+
+        var fields = new ByteArrayOutputStream();
+        var f = new DataOutputStream(fields);
+        int fieldCount = 0;
+
+        var constructor = new ByteArrayOutputStream();
+        var c = new DataOutputStream(constructor);
+        c.writeByte(0x2a); // aload_0
+        c.writeByte(0x2b); // aload_1
+        c.writeByte(0x2c); // aload_2
+        c.writeByte(0xb7); // invokespecial
+        c.writeShort(superConstructor);
+
+        var render = new ByteArrayOutputStream();
+        var r = new DataOutputStream(render);
+
+        for (int i = 0; i < children.size(); i++) {
+            var child = children.get(i);
+            var childType = child.getClass().getName().replace('.', '/');
+            var childDescriptor = "L" + childType + ";";
+            int childField = pool.member(9, COMPILED, "child" + i, childDescriptor);
+            writeField(f, pool.utf8("child" + i), pool.utf8(childDescriptor));
+            fieldCount++;
+
+            c.writeByte(0x2a); // aload_0
+            c.writeByte(0x2c); // aload_2
+            c.writeByte(0x11); // sipush
+            c.writeShort(i);
+            c.writeByte(0xb9); // invokeinterface
+            c.writeShort(listGet);
+            c.writeByte(2);
+            c.writeByte(0);
+            c.writeByte(0xc0); // checkcast
+            c.writeShort(pool.classInfo(childType));
+            c.writeByte(0xb5); // putfield
+            c.writeShort(childField);
+
+            r.writeByte(0x2a); // aload_0
+            r.writeByte(0xb4); // getfield
+            r.writeShort(childField);
+            if (childType.equals(TEXT) && modifiedUtf8Length(((TextRenderer) child).text) <= 0xffff) {
+                r.writeByte(0x13); // ldc_w
+                r.writeShort(pool.string(((TextRenderer) child).text));
+                r.writeByte(0x2d); // aload_3
+                r.writeByte(0xb6); // invokevirtual
+                r.writeShort(pool.member(10, TEXT, "renderText", RENDER_TEXT_DESCRIPTOR));
+            } else if (childType.equals(NAME) && handles[i] != null) {
+                int handleField = pool.member(9, COMPILED, "handle" + i, HANDLE_DESCRIPTOR);
+                writeField(f, pool.utf8("handle" + i), handleType);
+                fieldCount++;
+
+                c.writeByte(0x2a); // aload_0
+                c.writeByte(0x2d); // aload_3
+                c.writeByte(0x11); // sipush
+                c.writeShort(i);
+                c.writeByte(0x32); // aaload
+                c.writeByte(0xb5); // putfield
+                c.writeShort(handleField);
+
+                r.writeByte(0x2a); // aload_0
+                r.writeByte(0xb4); // getfield
+                r.writeShort(handleField);
+                r.writeByte(0x2b); // aload_1
+                r.writeByte(0x2c); // aload_2
+                r.writeByte(0x2d); // aload_3
+                r.writeByte(0xb6); // invokevirtual
+                r.writeShort(pool.member(10, NAME, "renderWithHandle", RENDER_WITH_HANDLE_DESCRIPTOR));
+            } else {
+                r.writeByte(0x2b); // aload_1
+                r.writeByte(0x2c); // aload_2
+                r.writeByte(0x2d); // aload_3
+                r.writeByte(0xb6); // invokevirtual
+                r.writeShort(pool.member(10, childType, "render", RENDER_DESCRIPTOR));
+            }
+        }
+        c.writeByte(0xb1); // return
+        r.writeByte(0xb1); // return
+
+        int initName = pool.utf8("<init>");
+        int initDescriptor = pool.utf8(CONSTRUCTOR_DESCRIPTOR);
+        int renderName = pool.utf8("render");
+        int renderDescriptor = pool.utf8(RENDER_DESCRIPTOR);
+
+        var classFile = new ByteArrayOutputStream();
+        var out = new DataOutputStream(classFile);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(59); // Java 15
+        pool.writeTo(out);
+        out.writeShort(0x1000 | 0x0020 | 0x0010); // synthetic super final
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0); // no interfaces
+        out.writeShort(fieldCount);
+        f.flush();
+        fields.writeTo(out);
+        out.writeShort(2);
+        writeMethod(out, 0, initName, initDescriptor, code, 3, 4, constructor.toByteArray());
+        writeMethod(out, 0x0001 | 0x0010, renderName, renderDescriptor, code, 5, 4, render.toByteArray());
+        out.writeShort(0); // no class attributes
+        return classFile.toByteArray();
+    }
+
+    private static void writeField(DataOutputStream out, int name, int descriptor) throws IOException {
+        out.writeShort(0x0002 | 0x0010); // private final
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(0); // no attributes
+    }
+
+    /**
+     * @return the size of text in a class file, which can't be more than 65535 bytes for a constant.
+     */
+    private static int modifiedUtf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            length += ch >= 0x0001 && ch <= 0x007f ? 1 : ch <= 0x07ff ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int codeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // no exception table
+        out.writeShort(0); // no code attributes
+    }
+
+    /**
+     * Just enough of a class file constant pool for the classes above.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) throws IOException {
+            var key = "utf8 " + value;
+            var index = entries.get(key);
+            if (index == null) {
+                out.writeByte(1);
+                out.writeUTF(value);
+                index = add(key);
+            }
+            return index;
+        }
+
+        int string(String value) throws IOException {
+            var key = "string " + value;
+            var index = entries.get(key);
+            if (index == null) {
+                int utf8 = utf8(value);
+                out.writeByte(8);
+                out.writeShort(utf8);
+                index = add(key);
+            }
+            return index;
+        }
+
+        int classInfo(String internalName) throws IOException {
+            var key = "class " + internalName;
+            var index = entries.get(key);
+            if (index == null) {
+                int name = utf8(internalName);
+                out.writeByte(7);
+                out.writeShort(name);
+                index = add(key);
+            }
+            return index;
+        }
+
+        /**
+         * @param tag 9 for a field, 10 for a method, 11 for an interface method.
+         */
+        int member(int tag, String owner, String name, String descriptor) throws IOException {
+            var key = tag + " " + owner + " " + name + " " + descriptor;
+            var index = entries.get(key);
+            if (index == null) {
+                int ownerIndex = classInfo(owner);
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                var nameAndTypeKey = "nat " + name + " " + descriptor;
+                var nameAndType = entries.get(nameAndTypeKey);
+                if (nameAndType == null) {
+                    out.writeByte(12);
+                    out.writeShort(nameIndex);
+                    out.writeShort(descriptorIndex);
+                    nameAndType = add(nameAndTypeKey);
+                }
+                out.writeByte(tag);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+                index = add(key);
+            }
+            return index;
+        }
+
+        private int add(String key) {
+            entries.put(key, count);
+            return count++;
+        }
+
+        void writeTo(DataOutputStream classFile) throws IOException {
+            out.flush();
+            classFile.writeShort(count);
+            bytes.writeTo(classFile);
+        }
+    }
+}
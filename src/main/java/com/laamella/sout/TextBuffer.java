@@ -14,6 +14,10 @@ final class TextBuffer {
         stringBuilder.append((char) c);
     }
 
+    void append(char[] chars, int offset, int length) {
+        stringBuilder.append(chars, offset, length);
+    }
+
     String consume(){
         String val = stringBuilder.toString();
         clear();
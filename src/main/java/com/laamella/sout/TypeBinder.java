@@ -0,0 +1,183 @@
+package com.laamella.sout;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Binds the names in a typed template to the fields and methods of the model class while parsing,
+ * so that they don't need to be looked up while rendering.
+ * <p>
+ * The static type is followed through dotted names, booleans, loops and simple nestings,
+ * using generic type information for the elements of collections when it is there.
+ * Where the type is unknown (Object, type variables, raw collections, ...) names are left to be resolved at render time.
+ */
+final class TypeBinder {
+    private final NameResolver nameResolver;
+    /**
+     * Whether a name that doesn't exist on a concrete class is an error.
+     * Not when a custom name renderer might take care of it.
+     */
+    private final boolean failOnUnknownNames;
+    /**
+     * Whether parts of nestings can be bound.
+     * Not when custom renderers might render them with some other model.
+     */
+    private final boolean bindParts;
+
+    TypeBinder(NameResolver nameResolver, boolean failOnUnknownNames, boolean bindParts) {
+        this.nameResolver = nameResolver;
+        this.failOnUnknownNames = failOnUnknownNames;
+        this.bindParts = bindParts;
+    }
+
+    /**
+     * @param modelType the type of the model that will be passed to renderable.
+     */
+    void bind(Renderable renderable, Type modelType) {
+        if (renderable instanceof ContainerRenderer) {
+            for (var child : ((ContainerRenderer) renderable).children) {
+                bind(child, modelType);
+            }
+        } else if (renderable instanceof NameRenderer) {
+            var nameRenderer = (NameRenderer) renderable;
+            bindName(nameRenderer.nameCallSite, modelType, nameRenderer.position);
+        } else if (renderable instanceof NestedRenderer) {
+            var nestedRenderer = (NestedRenderer) renderable;
+            var nestedType = bindName(nestedRenderer.nameCallSite, modelType, nestedRenderer.position);
+            if (bindParts && nestedType != null) {
+                bindParts(nestedRenderer.parts, nestedType, modelType);
+            }
+        }
+    }
+
+    /**
+     * @return the type of the value of the name, or null when it isn't known.
+     */
+    private Type bindName(NameCallSite nameCallSite, Type modelType, Position position) {
+        var simpleNames = nameCallSite.name.simpleNames;
+        var type = modelType;
+        for (int i = 0; i < simpleNames.length; i++) {
+            var rawType = rawType(type);
+            if (rawType == null || rawType == Object.class) {
+                return null;
+            }
+            var accessor = nameResolver.accessorFor(rawType, simpleNames[i]);
+            if (accessor == NameResolver.Accessor.NONE) {
+                // Interfaces and abstract classes leave a lot to their implementations, so those are resolved later.
+                if (failOnUnknownNames && !isOpenToImplementations(rawType)) {
+                    throw new SoutException(position, "%s not found on %s.", simpleNames[i], rawType.getName());
+                }
+                return null;
+            }
+            nameCallSite.bind(i, accessor);
+            type = valueType(accessor, type);
+        }
+        return type;
+    }
+
+    /**
+     * Follows what {@link BooleanRenderer}, {@link CollectionRenderer} and {@link SimpleNestingRenderer} do with the parts.
+     */
+    private void bindParts(Renderable[] parts, Type nestedType, Type modelType) {
+        var rawType = rawType(nestedType);
+        if (rawType == null) {
+            return;
+        }
+        if (rawType == Boolean.class) {
+            for (Renderable part : parts) {
+                bind(part, modelType);
+            }
+        } else if (isLoopable(rawType)) {
+            var elementType = elementType(nestedType);
+            if (elementType == null) {
+                return;
+            }
+            switch (parts.length) {
+                case 1 -> bind(parts[0], elementType);
+                case 2 -> {
+                    bind(parts[0], elementType);
+                    bind(parts[1], elementType);
+                }
+                case 4 -> {
+                    bind(parts[0], modelType);
+                    bind(parts[1], elementType);
+                    bind(parts[2], elementType);
+                    bind(parts[3], modelType);
+                }
+            }
+        } else if (parts.length == 1) {
+            bind(parts[0], nestedType);
+        }
+    }
+
+    /**
+     * Array classes are abstract too, but nothing can extend them.
+     */
+    private static boolean isOpenToImplementations(Class<?> rawType) {
+        return rawType.isInterface() || (Modifier.isAbstract(rawType.getModifiers()) && !rawType.isArray());
+    }
+
+    private static boolean isLoopable(Class<?> rawType) {
+        return rawType.isArray() || Iterable.class.isAssignableFrom(rawType) || Iterator.class.isAssignableFrom(rawType) || Stream.class.isAssignableFrom(rawType);
+    }
+
+    private static Type elementType(Type type) {
+        if (type instanceof GenericArrayType) {
+            return ((GenericArrayType) type).getGenericComponentType();
+        }
+        if (type instanceof Class && ((Class<?>) type).isArray()) {
+            return ((Class<?>) type).getComponentType();
+        }
+        return typeArgument(type, 0, 1);
+    }
+
+    private static Type valueType(NameResolver.Accessor accessor, Type targetType) {
+        switch (accessor.strategy) {
+            case MAP:
+            case FUNCTION:
+                return typeArgument(targetType, 1, 2);
+            default:
+                return accessor.type;
+        }
+    }
+
+    /**
+     * @return type argument "index" if type is a parameterized type with "count" arguments, otherwise null.
+     */
+    private static Type typeArgument(Type type, int index, int count) {
+        if (type instanceof ParameterizedType) {
+            var arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (arguments.length == count) {
+                return arguments[index];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the class for type, or null if it can't be known.
+     */
+    private static Class<?> rawType(Type type) {
+        if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        if (type instanceof ParameterizedType) {
+            return rawType(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            var componentType = rawType(((GenericArrayType) type).getGenericComponentType());
+            return componentType == null ? null : componentType.arrayType();
+        }
+        if (type instanceof Class) {
+            var c = (Class<?>) type;
+            return c.isPrimitive() ? MethodType.methodType(c).wrap().returnType() : c;
+        }
+        return null;
+    }
+}
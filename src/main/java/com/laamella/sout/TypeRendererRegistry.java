@@ -0,0 +1,83 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.laamella.sout.SoutConfiguration.NO_CUSTOM_TYPE_RENDERER;
+
+/**
+ * Passes values to the renderer that is registered for their class, see {@link SoutConfiguration#setTypeRenderer(Class, CustomTypeRenderer)}.
+ * When there is none for the class itself, the renderer of the nearest superclass is used,
+ * and when there is none for any superclass either, the renderer of an interface.
+ * Which renderer that is, is looked up once per class.
+ * <p>
+ * The custom type renderer of the configuration goes first.
+ */
+final class TypeRendererRegistry implements CustomTypeRenderer {
+    private final CustomTypeRenderer firstRenderer;
+    private final Map<Class<?>, CustomTypeRenderer> renderers;
+    private final boolean dependsOnlyOnClass;
+    private final ClassValue<CustomTypeRenderer> renderersByClass = new ClassValue<>() {
+        @Override
+        protected CustomTypeRenderer computeValue(Class<?> type) {
+            return lookUp(type);
+        }
+    };
+
+    TypeRendererRegistry(CustomTypeRenderer firstRenderer, Map<Class<?>, CustomTypeRenderer> renderers) {
+        this.firstRenderer = firstRenderer;
+        this.renderers = new HashMap<>(renderers);
+        this.dependsOnlyOnClass = (firstRenderer == NO_CUSTOM_TYPE_RENDERER || firstRenderer.dependsOnlyOnClass())
+                && renderers.values().stream().allMatch(CustomTypeRenderer::dependsOnlyOnClass);
+    }
+
+    @Override
+    public boolean render(String name, Renderable[] parts, Object model, Scope scope, Object parentModel, Scope parentScope, Position position, Writer outputWriter) throws IOException {
+        if (firstRenderer.render(name, parts, model, scope, parentModel, parentScope, position, outputWriter)) {
+            return true;
+        }
+        if (model == null) {
+            return false;
+        }
+        return renderersByClass.get(model.getClass()).render(name, parts, model, scope, parentModel, parentScope, position, outputWriter);
+    }
+
+    @Override
+    public boolean dependsOnlyOnClass() {
+        return dependsOnlyOnClass;
+    }
+
+    private CustomTypeRenderer lookUp(Class<?> type) {
+        for (var c = type; c != null; c = c.getSuperclass()) {
+            var renderer = renderers.get(c);
+            if (renderer != null) {
+                return renderer;
+            }
+        }
+        for (var c = type; c != null; c = c.getSuperclass()) {
+            for (var anInterface : c.getInterfaces()) {
+                var renderer = lookUpInterface(anInterface);
+                if (renderer != null) {
+                    return renderer;
+                }
+            }
+        }
+        return NO_CUSTOM_TYPE_RENDERER;
+    }
+
+    private CustomTypeRenderer lookUpInterface(Class<?> anInterface) {
+        var renderer = renderers.get(anInterface);
+        if (renderer != null) {
+            return renderer;
+        }
+        for (var superInterface : anInterface.getInterfaces()) {
+            renderer = lookUpInterface(superInterface);
+            if (renderer != null) {
+                return renderer;
+            }
+        }
+        return null;
+    }
+}
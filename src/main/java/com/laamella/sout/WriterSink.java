@@ -0,0 +1,121 @@
+package com.laamella.sout;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Collects output in a char array, and writes it to a Writer when the array is full, and at the end of a render.
+ * That way a synchronized or unbuffered Writer, like one on a socket, gets a few big writes instead of many small ones.
+ * <p>
+ * The char array is given back to the thread with {@link #release()}, and the next render on that thread uses it again.
+ */
+final class WriterSink extends OutputSink {
+    private static final ThreadLocal<char[]> SPARE_BUFFERS = new ThreadLocal<>();
+
+    private final Writer target;
+    private char[] buffer;
+    private int count = 0;
+    private long written = 0;
+
+    /**
+     * @param flushThreshold the size of the buffer, in chars.
+     */
+    WriterSink(Writer target, int flushThreshold) {
+        this.target = target;
+        var spare = SPARE_BUFFERS.get();
+        if (spare != null && spare.length == flushThreshold) {
+            // Templates rendering templates on the same thread don't get the same buffer.
+            SPARE_BUFFERS.set(null);
+            buffer = spare;
+        } else {
+            buffer = new char[flushThreshold];
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (count == buffer.length) {
+            writeBuffer();
+        }
+        buffer[count++] = (char) c;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (len > buffer.length - count) {
+            writeBuffer();
+            if (len > buffer.length) {
+                target.write(cbuf, off, len);
+                written += len;
+                return;
+            }
+        }
+        System.arraycopy(cbuf, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        if (len > buffer.length - count) {
+            writeBuffer();
+            if (len > buffer.length) {
+                target.write(str, off, len);
+                written += len;
+                return;
+            }
+        }
+        str.getChars(off, off + len, buffer, count);
+        count += len;
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        var s = String.valueOf(csq);
+        write(s, 0, s.length());
+        return this;
+    }
+
+    private void writeBuffer() throws IOException {
+        if (count > 0) {
+            target.write(buffer, 0, count);
+            written += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * Write what is left in the buffer to the target, without flushing it.
+     */
+    void finish() throws IOException {
+        writeBuffer();
+    }
+
+    /**
+     * @return how many characters have been written to the target.
+     */
+    long charactersWritten() {
+        return written;
+    }
+
+    /**
+     * Give the buffer back for the next render. Nothing can be written after this.
+     */
+    void release() {
+        if (buffer != null) {
+            SPARE_BUFFERS.set(buffer);
+            buffer = null;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+        target.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeBuffer();
+        target.close();
+    }
+}
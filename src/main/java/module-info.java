@@ -1,3 +1,5 @@
 module sout {
+    requires static jdk.jfr;
+
     exports com.laamella.sout;
 }
\ No newline at end of file
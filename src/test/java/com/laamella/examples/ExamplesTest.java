@@ -6,6 +6,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.*;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -47,6 +48,34 @@ public class ExamplesTest {
         }
     }
 
+    @Test
+    public void loadTheTemplateFromAFile() throws URISyntaxException {
+        Path templatePath = Paths.get(getClass().getResource("/templates/hello.sout").toURI());
+        var configuration = new SoutConfiguration('<', '|', '>', '\\', null, null, null);
+        var template = new SoutTemplate(templatePath, StandardCharsets.UTF_8, configuration);
+        var output = new StringWriter();
+        template.render(new Letter("Piet", "Hopscotch inc.", new Item("Ball", 14.55)), output);
+        assertEquals("""
+                Hello dear Piet,
+
+                It would be great if you paid for the items you ordered.
+                Ball €14.55
+
+                Thanks a lot,
+                Hopscotch inc.
+                """, output.toString());
+    }
+
+    @Test
+    public void bindTheTemplateToTheModelClass() {
+        var configuration = new SoutConfiguration('{', '|', '}', '\\', null, null, null);
+        // Names are looked up on Letter (and Item, through the items array) right away.
+        var template = new SoutTemplate(new StringReader("{name}: {items|{name}|, }"), configuration, Letter.class);
+        var output = new StringWriter();
+        template.render(new Letter("Piet", "Hopscotch inc.", new Item("Ball", 14.55), new Item("Triangle", 3.99)), output);
+        assertEquals("Piet: Ball, Triangle", output.toString());
+    }
+
     @Test
     public void useACustomDateFormatter() {
         var customDateRenderer = new CustomTypeRenderer() {
@@ -68,6 +97,23 @@ public class ExamplesTest {
         assertEquals("Date zero is 01-01-1970", output.toString());
     }
 
+    @Test
+    public void registerRenderersForTypes() {
+        var configuration = new SoutConfiguration('{', '|', '}', '\\', null, null, null);
+        configuration.setTypeRenderer(Date.class, (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> {
+            outputWriter.write(new SimpleDateFormat("dd-MM-yyyy").format((Date) model));
+            return true;
+        });
+        configuration.setTypeRenderer(Number.class, (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> {
+            outputWriter.write(String.format("%.2f", ((Number) model).doubleValue()));
+            return true;
+        });
+        var template = new SoutTemplate(new StringReader("{date}: {price}"), configuration);
+        var output = new StringWriter();
+        template.render(ImmutableMap.of("date", new Date(0), "price", 12), output);
+        assertEquals("01-01-1970: 12.00", output.toString());
+    }
+
     @Test
     public void useCustomNameRendererToForwardToAnotherTemplate() {
         // The TemplateResolver stores a map of name->template.
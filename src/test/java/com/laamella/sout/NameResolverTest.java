@@ -7,6 +7,7 @@ import java.util.function.Function;
 
 import static java.lang.Boolean.TRUE;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class NameResolverTest {
 
@@ -14,48 +15,158 @@ public class NameResolverTest {
 
     @Test
     public void findValueOfMapEntry() {
-        var value = nameResolver.resolveComplexNameOnModel(ImmutableMap.of("x", "y"), "x");
-        assertThat(value.failed).isFalse();
-        assertThat(value.value).isEqualTo("y");
+        var value = nameResolver.resolveComplexNameOnModel(ImmutableMap.of("x", "y"), new ComplexName("x"));
+        assertThat(value).isNotInstanceOf(NameResolver.Failure.class);
+        assertThat(value).isEqualTo("y");
     }
 
     @Test
     public void findValueOfFunctionApplication() {
-        var value = nameResolver.resolveComplexNameOnModel((Function<String, String>) o -> o + "woo", "name");
-        assertThat(value.failed).isFalse();
-        assertThat(value.value).isEqualTo("namewoo");
+        var value = nameResolver.resolveComplexNameOnModel((Function<String, String>) o -> o + "woo", new ComplexName("name"));
+        assertThat(value).isNotInstanceOf(NameResolver.Failure.class);
+        assertThat(value).isEqualTo("namewoo");
     }
 
     @Test
     public void findValueOfField() {
         var testModel = new TestModel();
-        var value = nameResolver.resolveComplexNameOnModel(testModel, "field");
-        assertThat(value.failed).isFalse();
-        assertThat(value.value).isEqualTo("*field*");
+        var value = nameResolver.resolveComplexNameOnModel(testModel, new ComplexName("field"));
+        assertThat(value).isNotInstanceOf(NameResolver.Failure.class);
+        assertThat(value).isEqualTo("*field*");
     }
 
     @Test
     public void findValueOfGetter() {
         var testModel = new TestModel();
-        var value = nameResolver.resolveComplexNameOnModel(testModel, "getter");
-        assertThat(value.failed).isFalse();
-        assertThat(value.value).isEqualTo("*getter*");
+        var value = nameResolver.resolveComplexNameOnModel(testModel, new ComplexName("getter"));
+        assertThat(value).isNotInstanceOf(NameResolver.Failure.class);
+        assertThat(value).isEqualTo("*getter*");
     }
 
     @Test
     public void findValueOfIsser() {
         var testModel = new TestModel();
-        var value = nameResolver.resolveComplexNameOnModel(testModel, "isser");
-        assertThat(value.failed).isFalse();
-        assertThat(value.value).isEqualTo(TRUE);
+        var value = nameResolver.resolveComplexNameOnModel(testModel, new ComplexName("isser"));
+        assertThat(value).isNotInstanceOf(NameResolver.Failure.class);
+        assertThat(value).isEqualTo(TRUE);
     }
 
     @Test
     public void findValueOfPlainMethod() {
         var testModel = new TestModel();
-        var value = nameResolver.resolveComplexNameOnModel(testModel, "plainMethod");
-        assertThat(value.failed).isFalse();
-        assertThat(value.value).isEqualTo(15);
+        var value = nameResolver.resolveComplexNameOnModel(testModel, new ComplexName("plainMethod"));
+        assertThat(value).isNotInstanceOf(NameResolver.Failure.class);
+        assertThat(value).isEqualTo(15);
     }
 
+    @Test
+    public void accessorsAreCachedPerClassAndName() {
+        var accessor = nameResolver.accessorFor(TestModel.class, "getter");
+        assertThat(nameResolver.accessorFor(TestModel.class, "getter")).isSameAs(accessor);
+        assertThat(accessor).isNotSameAs(NameResolver.Accessor.NONE);
+    }
+
+    @Test
+    public void missingNamesAreCachedToo() {
+        assertThat(nameResolver.accessorFor(TestModel.class, "nope")).isSameAs(NameResolver.Accessor.NONE);
+        var value = nameResolver.resolveComplexNameOnModel(new TestModel(), new ComplexName("nope"));
+        assertThat(value).isInstanceOf(NameResolver.Failure.class);
+    }
+
+    @Test
+    public void findValueOfFieldInSuperclass() {
+        var value = nameResolver.resolveComplexNameOnModel(new TestModel() {
+        }, new ComplexName("field"));
+        assertThat(value).isNotInstanceOf(NameResolver.Failure.class);
+        assertThat(value).isEqualTo("*field*");
+    }
+
+    @Test
+    public void complexNamesAreSplitOnDots() {
+        assertThat(new ComplexName("recurser.recurser.value").simpleNames).containsExactly("recurser", "recurser", "value");
+        assertThat(new ComplexName("recurser..value").simpleNames).containsExactly("recurser", "value");
+        assertThat(new ComplexName("").simpleNames).isEmpty();
+    }
+
+    @Test
+    public void findValueOfComplexName() {
+        var value = nameResolver.resolveComplexNameOnModel(new TestModel(), new ComplexName("recurser.recurser.value"));
+        assertThat(value).isNotInstanceOf(NameResolver.Failure.class);
+        assertThat(value).isEqualTo(2);
+    }
+
+    @Test
+    public void failuresDescribeWhereResolvingStopped() {
+        var value = nameResolver.resolveComplexNameOnModel(ImmutableMap.of("x", ImmutableMap.of()), new ComplexName("x.y.z"));
+        assertThat(value).isInstanceOf(NameResolver.Failure.class);
+        assertThat(((NameResolver.Failure) value).message()).isEqualTo("y not found in map {}.");
+    }
+
+    /**
+     * Counts how often a call site has to ask for an accessor, which is once per miss in its cache.
+     */
+    static class CountingNameResolver extends NameResolver {
+        int lookups = 0;
+
+        @Override
+        Accessor accessorFor(Class<?> type, String name) {
+            lookups++;
+            return super.accessorFor(type, name);
+        }
+    }
+
+    @Test
+    public void callSitesCacheAccessorsPerClass() {
+        var countingNameResolver = new CountingNameResolver();
+        var callSite = new NameCallSite(new ComplexName("recurser.value"), countingNameResolver, RenderMetrics.NONE);
+        assertThat(callSite.resolve(new TestModel())).isEqualTo(1);
+        assertThat(callSite.resolve(new TestModel())).isEqualTo(1);
+        assertThat(countingNameResolver.lookups).isEqualTo(2);
+        assertThat(callSite.isMegamorphic(0)).isFalse();
+    }
+
+    @Test
+    public void callSitesGoMegamorphicAfterTooManyClasses() {
+        var countingNameResolver = new CountingNameResolver();
+        var callSite = new NameCallSite(new ComplexName("field"), countingNameResolver, RenderMetrics.NONE);
+        Object[] models = {new TestModel(), new TestModel() {
+        }, new TestModel() {
+        }, new TestModel() {
+        }, new TestModel() {
+        }};
+        for (int i = 0; i < NameCallSite.MAX_CACHED_CLASSES; i++) {
+            assertThat(callSite.resolve(models[i])).isEqualTo("*field*");
+        }
+        // A full cache alone isn't megamorphic yet.
+        assertThat(callSite.isMegamorphic(0)).isFalse();
+        assertThat(callSite.resolve(models[4])).isEqualTo("*field*");
+        assertThat(callSite.isMegamorphic(0)).isTrue();
+        assertThat(callSite.resolve(models[4])).isEqualTo("*field*");
+        assertThat(countingNameResolver.lookups).isEqualTo(6);
+    }
+
+    static class FailingModel {
+        String getBroken() {
+            throw new IllegalStateException("broken");
+        }
+
+        String getDeep() {
+            throw new StackOverflowError();
+        }
+    }
+
+    @Test
+    public void exceptionsFromGettersAreKeptAsTheCause() {
+        var value = nameResolver.resolveComplexNameOnModel(new FailingModel(), new ComplexName("broken"));
+        assertThat(value).isInstanceOf(NameResolver.Failure.class);
+        assertThat(((NameResolver.Failure) value).toException(new Position(2, 1)))
+                .hasMessageStartingWith("1:2 Getting broken from")
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void errorsFromGettersAreNotCaught() {
+        assertThatThrownBy(() -> nameResolver.resolveComplexNameOnModel(new FailingModel(), new ComplexName("deep")))
+                .isInstanceOf(StackOverflowError.class);
+    }
 }
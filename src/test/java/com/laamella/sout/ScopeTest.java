@@ -0,0 +1,61 @@
+package com.laamella.sout;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ScopeTest {
+    private final Scope globalScope = new Scope(null);
+    private final Scope nestedScope = new Scope(globalScope);
+
+    @Test
+    public void variablesAreDefinedWhereTheyAreFirstAskedFor() {
+        assertThat(nestedScope.getVariable("a", 1)).isEqualTo(1);
+        assertThat(nestedScope.getVariable("a", 2)).isEqualTo(1);
+        assertThat(globalScope.getVariable("a", 3)).isEqualTo(3);
+    }
+
+    @Test
+    public void variablesAreFoundInParentScopes() {
+        globalScope.setVariable("b", "global");
+        assertThat(nestedScope.getVariable("b", "nested")).isEqualTo("global");
+
+        nestedScope.updateVariable("b", "updated");
+        assertThat(globalScope.getVariable("b", "other")).isEqualTo("updated");
+    }
+
+    @Test
+    public void nullIsAValue() {
+        globalScope.setVariable("c", null);
+        assertThat(nestedScope.getVariable("c", "default")).isNull();
+    }
+
+    @Test
+    public void updatingAnUndefinedVariableFails() {
+        globalScope.setVariable("d", 1);
+        assertThatThrownBy(() -> nestedScope.updateVariable("e", 1))
+                .isInstanceOf(SoutException.class)
+                .hasMessageContaining("Variable e not found.");
+    }
+
+    @Test
+    public void manyVariablesWorkToo() {
+        for (int i = 0; i < 300; i++) {
+            nestedScope.setVariable("name" + i, i);
+        }
+        for (int i = 0; i < 300; i++) {
+            assertThat(nestedScope.updateVariable("name" + i, i * 2)).isEqualTo(i * 2);
+            assertThat(new Scope(nestedScope).getVariable("name" + i, -1)).isEqualTo(i * 2);
+        }
+        assertThat(globalScope.getVariable("name" + 295, -1)).isEqualTo(-1);
+    }
+
+    @Test
+    public void settingAVariableAgainReplacesIt() {
+        nestedScope.setVariable("f", 1);
+        nestedScope.setVariable("f", 2);
+        assertThat(nestedScope.getVariable("f", 3)).isEqualTo(2);
+        assertThat(globalScope.getVariable("f", 4)).isEqualTo(4);
+    }
+}
@@ -0,0 +1,137 @@
+package com.laamella.sout;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SoutTemplateCacheTest {
+    private final SoutConfiguration configuration = new SoutConfiguration('{', '|', '}', '\\', null, null, null);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private SoutTemplateCache cache(int maximumSize) {
+        return new SoutTemplateCache(name -> {
+            loads.incrementAndGet();
+            return name.equals("missing") ? null : new StringReader(name + " {}");
+        }, maximumSize);
+    }
+
+    @Test
+    public void templatesAreLoadedOnce() {
+        var cache = cache(10);
+        var first = cache.get("hello", configuration);
+        var second = cache.get("hello", configuration);
+        assertThat(second).isSameAs(first);
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(1);
+
+        var output = new StringWriter();
+        first.render("Piet", output);
+        assertThat(output.toString()).isEqualTo("hello Piet");
+    }
+
+    @Test
+    public void failingLoadersAreReportedWithTheTemplateName() {
+        var cache = new SoutTemplateCache(name -> {
+            throw new UncheckedIOException(new IOException("disk on fire"));
+        }, 10);
+        assertThatThrownBy(() -> cache.get("hello", configuration))
+                .isInstanceOf(SoutException.class)
+                .hasMessage("Loading template hello failed.")
+                .hasRootCauseMessage("disk on fire");
+    }
+
+    @Test
+    public void configurationIsPartOfTheKey() {
+        var cache = cache(10);
+        var otherConfiguration = new SoutConfiguration('{', '|', '}', '\\', null, null, null);
+        assertThat(cache.get("hello", configuration)).isNotSameAs(cache.get("hello", otherConfiguration));
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void changedConfigurationsGetNewTemplates() {
+        var cache = cache(10);
+        var changingConfiguration = new SoutConfiguration('{', '|', '}', '\\', null, null, null);
+        var before = cache.get("hello", changingConfiguration);
+        changingConfiguration.setTypeRenderer(String.class, (name, parts, model, scope, parentModel, parentScope, position, output) -> {
+            output.write(((String) model).toUpperCase());
+            return true;
+        });
+        var after = cache.get("hello", changingConfiguration);
+        assertThat(after).isNotSameAs(before);
+        assertThat(cache.get("hello", changingConfiguration)).isSameAs(after);
+
+        var output = new StringWriter();
+        after.render("Piet", output);
+        assertThat(output.toString()).isEqualTo("hello PIET");
+    }
+
+    @Test
+    public void leastRecentlyUsedTemplatesAreEvicted() {
+        var cache = cache(2);
+        var a = cache.get("a", configuration);
+        cache.get("b", configuration);
+        cache.get("a", configuration);
+        cache.get("c", configuration);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+        assertThat(cache.get("a", configuration)).isSameAs(a);
+        cache.get("b", configuration);
+        assertThat(loads.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void failuresAreNotCached() {
+        var cache = cache(10);
+        assertThatThrownBy(() -> cache.get("missing", configuration))
+                .isInstanceOf(SoutException.class)
+                .hasMessage("Template missing not found.");
+        assertThatThrownBy(() -> cache.get("missing", configuration))
+                .isInstanceOf(SoutException.class);
+        assertThat(loads.get()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void concurrentRequestsLoadOnce() throws Exception {
+        var started = new CountDownLatch(1);
+        var cache = new SoutTemplateCache(name -> {
+            loads.incrementAndGet();
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new StringReader("{}");
+        }, 10);
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var futures = new ArrayList<Future<SoutTemplate>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> cache.get("slow", configuration)));
+            }
+            Thread.sleep(50);
+            started.countDown();
+            var first = futures.get(0).get(10, TimeUnit.SECONDS);
+            for (var future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS)).isSameAs(first);
+            }
+            assertThat(loads.get()).isEqualTo(1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -2,14 +2,47 @@ package com.laamella.sout;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SoutTemplateTest {
     @Test
@@ -217,6 +250,22 @@ public class SoutTemplateTest {
                 .hasMessage("1:8 Name abc was not closed before end of file.");
     }
 
+    @Test
+    public void positionsAreTrackedOverLargeTemplates() {
+        var largeTemplate = "line {name}\n".repeat(3000) + "abc}";
+        assertThatThrownBy(() -> parse(largeTemplate))
+                .isInstanceOf(SoutException.class)
+                .hasMessage("3001:5 Unexpected closing } at top level.");
+    }
+
+    @Test
+    public void largeTemplatesAreParsedCompletely() {
+        var template = parse("{name}\\{ ".repeat(5000));
+        var output = new StringWriter();
+        template.render(ImmutableMap.of("name", "x"), output);
+        assertEquals("x{ ".repeat(5000), output.toString());
+    }
+
     @Test
     public void unexpectedOpenCharInName() {
         assertThatThrownBy(() -> parse("123{abc{def}}"))
@@ -268,6 +317,777 @@ public class SoutTemplateTest {
                 .hasMessage("1:1 Null value.");
     }
 
+    @Test
+    public void compiledTemplatesRenderTheSame() {
+        var configuration = new SoutConfiguration('{', '|', '}', '\\', null, null, null);
+        configuration.setCompiled(true);
+        var template = parse("Hello {name}{friends| and your {friendState} friends |{name}| and |! {exclamation}}", configuration);
+        var data = ImmutableMap.of(
+                "name", "Piet",
+                "friendState", "happy",
+                "exclamation", "hurray!",
+                "friends", ImmutableList.of(
+                        ImmutableMap.of("name", "Hans"),
+                        ImmutableMap.of("name", "Henk")));
+
+        assertRendered("Hello Piet and your happy friends Hans and Henk! hurray!", template, data);
+        assertEquals("Hello ❰name❱❰friends❚ and your ❰friendState❱ friends ❚❰name❱❚ and ❚! ❰exclamation❱❱", template.toString());
+    }
+
+    @Test
+    public void compiledTypedTemplatesRenderTheSame() {
+        var configuration = defaultConfiguration();
+        configuration.setCompiled(true);
+        var template = new SoutTemplate(new StringReader("{field} {getter} {isser|yes|no} {recurser|{value}: {recurser.value}}!"), configuration, TestModel.class);
+        assertRendered("*field* *getter* yes 1: 2!", template, new TestModel());
+        var output = new ByteArrayOutputStream();
+        template.render(new TestModel(), output, StandardCharsets.UTF_8);
+        assertEquals("*field* *getter* yes 1: 2!", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void compiledTypedTemplatesKeepWhatGettersThrow() {
+        var configuration = defaultConfiguration();
+        configuration.setCompiled(true);
+        var template = new SoutTemplate(new StringReader("a {broken} b"), configuration, NameResolverTest.FailingModel.class);
+        assertThatThrownBy(() -> template.renderToString(new NameResolverTest.FailingModel()))
+                .isInstanceOf(SoutException.class)
+                .hasMessageStartingWith("1:3 Getting broken from")
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void typedTemplateBindsNamesWhileParsing() {
+        var template = new SoutTemplate(new StringReader("{recurser.recurser.value} {getter} {isser|yes|no} {recurser|{value}}"), defaultConfiguration(), TestModel.class);
+        assertRendered("2 *getter* yes 1", template, new TestModel());
+    }
+
+    @Test
+    public void typedTemplateFailsOnUnknownNamesWhileParsing() {
+        assertThatThrownBy(() -> new SoutTemplate(new StringReader("abc {recurser.nope}"), defaultConfiguration(), TestModel.class))
+                .isInstanceOf(SoutException.class)
+                .hasMessage("1:5 nope not found on com.laamella.sout.TestModel$Recurser.");
+    }
+
+    @Test
+    public void typedTemplateFailsOnUnknownNamesOfArrays() {
+        assertThatThrownBy(() -> new SoutTemplate(new StringReader("{nope}"), defaultConfiguration(), String[].class))
+                .isInstanceOf(SoutException.class)
+                .hasMessage("1:1 nope not found on [Ljava.lang.String;.");
+    }
+
+    @Test
+    public void typedTemplateOnlyRendersItsModelType() {
+        var template = new SoutTemplate(new StringReader("{field}"), defaultConfiguration(), TestModel.class);
+        assertThatThrownBy(() -> template.render("abc", new StringWriter()))
+                .isInstanceOf(SoutException.class)
+                .hasMessage("This template renders com.laamella.sout.TestModel, not java.lang.String.");
+    }
+
+    @Test
+    public void renderToBytes() {
+        var template = parse("Hëllo {name}, {friends|{name}| and }! €");
+        var data = ImmutableMap.of(
+                "name", "Piët",
+                "friends", ImmutableList.of(
+                        ImmutableMap.of("name", "Hans"),
+                        ImmutableMap.of("name", "H\uD83D\uDE00nk")));
+
+        for (var charset : List.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16)) {
+            var output = new ByteArrayOutputStream();
+            template.render(data, output, charset);
+            assertArrayEquals("Hëllo Piët, Hans and H\uD83D\uDE00nk! €".getBytes(charset), output.toByteArray());
+        }
+    }
+
+    @Test
+    public void largeTemplateFile(@TempDir Path directory) throws IOException {
+        var templatePath = directory.resolve("large.sout");
+        Files.writeString(templatePath, "€{name}ë".repeat(5000), StandardCharsets.UTF_8);
+        var template = new SoutTemplate(templatePath, StandardCharsets.UTF_8, defaultConfiguration());
+        assertRendered("€xë".repeat(5000), template, ImmutableMap.of("name", "x"));
+    }
+
+    @Test
+    public void missingTemplateFile() {
+        assertThatThrownBy(() -> new SoutTemplate(Path.of("does/not/exist.sout"), StandardCharsets.UTF_8, defaultConfiguration()))
+                .isInstanceOf(SoutException.class)
+                .hasCauseInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    public void primitiveArrayLoops() {
+        var template = parse("{ints|[|{}|, |]} {longs|<{}>} {doubles|{}|;} {floats|{}|;} {chars|{}} {booleans|{}| } {bytes|{}|,}");
+        var data = new HashMap<String, Object>();
+        data.put("ints", new int[]{1, -20, Integer.MIN_VALUE});
+        data.put("longs", new long[]{Long.MAX_VALUE, 0});
+        data.put("doubles", new double[]{0.1, -1e300});
+        data.put("floats", new float[]{0.1f, 2f});
+        data.put("chars", new char[]{'a', '€'});
+        data.put("booleans", new boolean[]{true, false});
+        data.put("bytes", new byte[]{-128, 127});
+        var expected = "[1, -20, -2147483648] <9223372036854775807><0> 0.1;-1.0E300 0.1;2.0 a€ true false -128,127";
+
+        assertRendered(expected, template, data);
+        var output = new ByteArrayOutputStream();
+        template.render(data, output, StandardCharsets.UTF_8);
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), output.toByteArray());
+        assertRendered("", parse("{ints|[|{}|, |]}{doubles|{}}"), ImmutableMap.of("ints", new int[0], "doubles", new double[0]));
+    }
+
+    @Test
+    public void customTypeRenderersGetBoxedArrayElements() {
+        CustomTypeRenderer integerRenderer = (name, parts, model, scope, parentModel, parentScope, position, output) -> {
+            if (model instanceof Integer) {
+                output.append("INT");
+                return true;
+            }
+            return false;
+        };
+        var configuration = new SoutConfiguration('{', '|', '}', '\\', null, integerRenderer, null);
+        assertRendered("INT,INT", parse("{|{}|,}", configuration), new int[]{1, 2});
+    }
+
+    @Test
+    public void indexedAndIteratedLoopsRenderTheSame() {
+        var template = parse("{|[|{}|, |]}");
+        var elements = List.of("a", "b", "c");
+        for (Object model : List.of(elements.toArray(), new ArrayList<>(elements), new LinkedList<>(elements), new CopyOnWriteArrayList<>(elements), new HashSet<>(elements))) {
+            assertRendered("[a, b, c]", template, model);
+        }
+        assertRendered("", template, new Object[0]);
+        assertRendered("", template, new ArrayList<>());
+    }
+
+    @Test
+    public void parallelLoopsRenderTheSame() {
+        var configuration = defaultConfiguration();
+        configuration.setParallelLoops(ForkJoinPool.commonPool(), 10);
+        var text = "{names|<|{}|, |>} {numbers|{}|,} {rows|{|{}|,}|;}";
+        var data = ImmutableMap.of(
+                "names", IntStream.range(0, 1000).mapToObj(i -> "name" + i).collect(toList()),
+                "numbers", IntStream.range(0, 1000).toArray(),
+                "rows", IntStream.range(0, 100).mapToObj(i -> IntStream.range(0, 20).toArray()).toArray());
+
+        assertRendered(render(parse(text), data), parse(text, configuration), data);
+    }
+
+    @Test
+    public void scopeCantBeChangedInParallelLoops() {
+        CustomNameRenderer counter = (name, parts, model, scope, position, outputWriter) -> {
+            if (name.equals("counter")) {
+                Integer count = scope.getVariable(name, 1);
+                scope.updateVariable(name, count + 1);
+                return true;
+            }
+            return false;
+        };
+        var configuration = new SoutConfiguration('{', '|', '}', '\\', counter, null, null);
+        configuration.setParallelLoops(ForkJoinPool.commonPool(), 10);
+        var template = parse("{|{counter}}", configuration);
+
+        assertThatThrownBy(() -> template.render(IntStream.range(0, 100).toArray(), new StringWriter()))
+                .isInstanceOf(SoutException.class)
+                .hasMessage("Variable counter can't be changed while other threads are rendering with it.");
+        assertRendered("", template, new int[]{1, 2, 3});
+    }
+
+    @Test
+    public void failingParallelLoopsWaitForChunksThatAreStillRendering() {
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var slowStarted = new CountDownLatch(1);
+            var slowFinished = new AtomicBoolean();
+            CustomTypeRenderer renderer = (name, parts, model, scope, parentModel, parentScope, position, output) -> {
+                try {
+                    if ("slow".equals(model)) {
+                        slowStarted.countDown();
+                        TimeUnit.MILLISECONDS.sleep(200);
+                        slowFinished.set(true);
+                    } else if ("boom".equals(model)) {
+                        slowStarted.await();
+                        throw new IllegalStateException("boom");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            };
+            var configuration = new SoutConfiguration('{', '|', '}', '\\', null, renderer, null);
+            configuration.setParallelLoops(executor, 2);
+            var template = parse("{values|{}}", configuration);
+
+            assertThatThrownBy(() -> template.render(ImmutableMap.of("values", List.of("boom", "slow")), new StringWriter()))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("boom");
+            assertTrue(slowFinished.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentSectionsRenderInTemplateOrder() throws InterruptedException {
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var configuration = defaultConfiguration();
+            configuration.setConcurrentSections(executor);
+            // Both sections wait for each other, so this only finishes when they render at the same time.
+            var barrier = new CyclicBarrier(2);
+            Function<String, Object> slowModel = name -> {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return name.toUpperCase();
+            };
+            var template = parse("<{title}>{first|{x}} and {second|{y}}.", configuration);
+            var data = ImmutableMap.of("title", "Dashboard", "first", slowModel, "second", slowModel);
+
+            assertRendered("<Dashboard>X and Y.", template, data);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentSectionsHaveTheirOwnScope() {
+        CustomNameRenderer counter = (name, parts, model, scope, position, outputWriter) -> {
+            if (name.equals("counter")) {
+                Integer count = scope.getVariable(name, 1);
+                outputWriter.write("" + count);
+                scope.updateVariable(name, count + 1);
+                return true;
+            }
+            return false;
+        };
+        var configuration = new SoutConfiguration('{', '|', '}', '\\', counter, null, null);
+        configuration.setConcurrentSections(ForkJoinPool.commonPool());
+        var template = parse("{counter}{|{counter}{counter}}{|{counter}}", configuration);
+
+        assertRendered("1121", template, "model");
+    }
+
+    @Test
+    public void loopsInConcurrentSectionsAreNotRenderedInParallel() {
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var configuration = defaultConfiguration();
+            configuration.setConcurrentSections(executor);
+            configuration.setParallelLoops(executor, 2);
+            // Both sections take a thread, so parallel loops inside them would wait for threads forever.
+            var template = parse("{first|{|{}}} {second|{|{}}}", configuration);
+            var data = ImmutableMap.of("first", IntStream.range(0, 100).toArray(), "second", IntStream.range(0, 100).toArray());
+            var expected = render(parse("{first|{|{}}} {second|{|{}}}"), data);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertRendered(expected, template, data));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failingConcurrentSectionsWaitForSectionsThatAreStillRendering() {
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var configuration = defaultConfiguration();
+            configuration.setConcurrentSections(executor);
+            var slowStarted = new CountDownLatch(1);
+            var slowFinished = new AtomicBoolean();
+            Function<String, Object> model = name -> {
+                try {
+                    if (name.equals("slow")) {
+                        slowStarted.countDown();
+                        TimeUnit.MILLISECONDS.sleep(200);
+                        slowFinished.set(true);
+                        return "slow";
+                    }
+                    slowStarted.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("boom");
+            };
+            var template = parse("{boom|{}} {slow|{}}", configuration);
+
+            assertThatThrownBy(() -> render(template, model))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("boom");
+            assertTrue(slowFinished.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentSectionsWaitForAsyncValues() {
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var configuration = defaultConfiguration();
+            configuration.setConcurrentSections(executor);
+            var template = parse("{first|{name}} and {second|{name}}", configuration);
+            var name = new CompletableFuture<String>();
+            var data = ImmutableMap.of("first", ImmutableMap.of("name", name), "second", ImmutableMap.of("name", "Henk"));
+            var output = new StringWriter();
+
+            var done = template.renderAsync(data, output).toCompletableFuture();
+            assertEquals("", output.toString());
+            name.complete("Piet");
+            assertEquals("Piet and Henk", output.toString());
+            assertTrue(done.isDone());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void parallelLoopsWaitForAsyncValues() {
+        var configuration = defaultConfiguration();
+        configuration.setParallelLoops(ForkJoinPool.commonPool(), 0);
+        var template = parse("{fs|{}|,}", configuration);
+        var a = new CompletableFuture<String>();
+        var b = new CompletableFuture<String>();
+        var output = new StringWriter();
+
+        var done = template.renderAsync(ImmutableMap.of("fs", List.of(a, b)), output).toCompletableFuture();
+        assertEquals("", output.toString());
+        a.complete("a");
+        b.complete("b");
+        assertEquals("a,b", output.toString());
+        assertTrue(done.isDone());
+    }
+
+    @Test
+    public void renderAsyncWritesInOrderAsValuesComplete() {
+        var template = parse("Hello {name}, {friend|{name} and {name2}}, {items|{}|,}!");
+        var name = new CompletableFuture<String>();
+        var friend = new CompletableFuture<Object>();
+        var name2 = new CompletableFuture<String>();
+        var items = List.of(CompletableFuture.completedFuture(1), new CompletableFuture<Integer>());
+        var data = ImmutableMap.of("name", name, "friend", friend, "items", items);
+        var output = new StringWriter();
+
+        var done = template.renderAsync(data, output).toCompletableFuture();
+        assertEquals("Hello ", output.toString());
+        friend.complete(ImmutableMap.of("name", "Hans", "name2", name2));
+        assertEquals("Hello ", output.toString());
+        name.complete("Piet");
+        assertEquals("Hello Piet, Hans and ", output.toString());
+        items.get(1).complete(2);
+        name2.complete("Henk");
+        assertEquals("Hello Piet, Hans and Henk, 1,2!", output.toString());
+        assertTrue(done.isDone());
+    }
+
+    @Test
+    public void renderAsyncReportsFailedValues() {
+        var template = parse("Hello {name}!");
+        var done = template.renderAsync(ImmutableMap.of("name", CompletableFuture.failedFuture(new IllegalStateException("offline"))), new StringWriter());
+
+        assertThatThrownBy(() -> done.toCompletableFuture().join())
+                .hasCauseInstanceOf(SoutException.class)
+                .hasRootCauseMessage("offline");
+    }
+
+    @Test
+    public void renderAsyncReportsExceptionsFromCustomRenderersInTheStage() {
+        CustomTypeRenderer brokenRenderer = (name, parts, model, scope, parentModel, parentScope, position, output) -> {
+            throw new IllegalStateException("broken");
+        };
+        var template = parse("Hello {name}!", new SoutConfiguration('{', '|', '}', '\\', null, brokenRenderer, null));
+        var done = template.renderAsync(ImmutableMap.of("name", "Piet"), new StringWriter());
+
+        assertThatThrownBy(() -> done.toCompletableFuture().join())
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("broken");
+    }
+
+    @Test
+    public void renderPublisherPublishesTheOutputAsRequested() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var template = parse("Hëllo {names|{}|, }!");
+            var data = ImmutableMap.of("names", IntStream.range(0, 10_000).mapToObj(i -> "naam" + i).collect(toList()));
+            var subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+            template.renderPublisher(data, StandardCharsets.UTF_8, executor).subscribe(subscriber);
+
+            subscriber.done.get(10, TimeUnit.SECONDS);
+            assertEquals(render(template, data), subscriber.bytes.toString(StandardCharsets.UTF_8));
+            assertTrue(subscriber.buffers > 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void renderPublisherStopsWhenCancelled() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        var template = parse("{numbers|{} bottles of beer on the wall.\n}");
+        var endlessData = ImmutableMap.of("numbers", Stream.iterate(1, i -> i + 1));
+        var subscriber = new CollectingSubscriber(3);
+        template.renderPublisher(endlessData, StandardCharsets.UTF_8, executor).subscribe(subscriber);
+
+        subscriber.done.get(10, TimeUnit.SECONDS);
+        assertEquals(3, subscriber.buffers);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void renderPublisherReleasesItsThreadWhenCancelledWhileWaiting() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var template = parse("{numbers|{} bottles of beer on the wall.\n}");
+            var endlessData = ImmutableMap.of("numbers", Stream.iterate(1, i -> i + 1));
+            var subscription = new CompletableFuture<Flow.Subscription>();
+            var firstBuffer = new CompletableFuture<Void>();
+            template.renderPublisher(endlessData, StandardCharsets.UTF_8, executor).subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    subscription.complete(s);
+                    s.request(1);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    firstBuffer.complete(null);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    firstBuffer.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+
+            firstBuffer.get(10, TimeUnit.SECONDS);
+            // The render is now waiting for more demand on the only thread of the executor.
+            subscription.get().cancel();
+            assertEquals("free", executor.submit(() -> "free").get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Requests one buffer at a time, and cancels after maximumBuffers.
+     */
+    private static class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final long maximumBuffers;
+        private Flow.Subscription subscription;
+        int buffers = 0;
+
+        CollectingSubscriber(long maximumBuffers) {
+            this.maximumBuffers = maximumBuffers;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            bytes.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+            if (++buffers == maximumBuffers) {
+                subscription.cancel();
+                done.complete(null);
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+
+    @Test
+    public void outputIsWrittenInChunks() {
+        var text = "{rows|{name}: {numbers|{}|,}|\n}";
+        var numbers = new long[]{1, -22, Long.MIN_VALUE};
+        var data = ImmutableMap.of("rows", List.of(
+                ImmutableMap.of("name", "a", "numbers", numbers),
+                ImmutableMap.of("name", "b", "numbers", numbers),
+                ImmutableMap.of("name", "c", "numbers", numbers)));
+        var expected = "a: 1,-22,-9223372036854775808\nb: 1,-22,-9223372036854775808\nc: 1,-22,-9223372036854775808";
+
+        for (var flushThreshold : List.of(0, 16, 8192)) {
+            var configuration = defaultConfiguration();
+            configuration.setFlushThreshold(flushThreshold);
+            var writes = new ArrayList<String>();
+            var output = new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                    writes.add(new String(cbuf, off, len));
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            parse(text, configuration).render(data, output);
+
+            assertEquals(expected, String.join("", writes));
+            if (flushThreshold == 8192) {
+                assertEquals(List.of(expected), writes);
+            } else {
+                assertTrue(writes.size() > 1);
+            }
+        }
+    }
+
+    @Test
+    public void failedRendersLeaveWhatWasRenderedBeforeTheFailure() {
+        var template = parse("before {nope} after");
+        var output = new StringWriter();
+        assertThatThrownBy(() -> template.render(ImmutableMap.of(), output)).isInstanceOf(SoutException.class);
+        assertEquals("before ", output.toString());
+    }
+
+    @Test
+    public void renderToString() {
+        var template = parse("Hello {name}{friends| and your {friendState} friends |{name}| and |! {exclamation}} \\{");
+        var data = ImmutableMap.of(
+                "name", "Piet",
+                "friendState", "happy",
+                "exclamation", "hurray!",
+                "friends", ImmutableList.of(
+                        ImmutableMap.of("name", "Hans"),
+                        ImmutableMap.of("name", "Henk")));
+
+        assertEquals("Hello Piet and your happy friends Hans and Henk! hurray! {", template.renderToString(data));
+        assertEquals(render(template, data), template.renderToString(data));
+    }
+
+    @Test
+    public void renderToStringFailsLikeRenderToWriter() {
+        var template = parse("abc {nope}");
+        assertThatThrownBy(() -> template.renderToString(ImmutableMap.of()))
+                .isInstanceOf(SoutException.class)
+                .hasMessage("1:5 nope not found in map {}.");
+        assertEquals("abc x", template.renderToString(ImmutableMap.of("nope", "x")));
+    }
+
+    @Test
+    public void renderToStringBuilderWithNestings() {
+        var template = parse("{people|{name}: {pets|{}|, }|; }");
+        var data = ImmutableMap.of("people", ImmutableList.of(
+                ImmutableMap.of("name", "Piet", "pets", List.of("cat", "dog")),
+                ImmutableMap.of("name", "Klaas", "pets", List.of())));
+        var output = new StringBuilder();
+
+        template.render(data, output);
+        assertEquals("Piet: cat, dog; Klaas: ", output.toString());
+        assertEquals(render(template, data), output.toString());
+    }
+
+    @Test
+    public void renderToStringBuilder() {
+        var template = parse("Hello {name}, {numbers|{}|,}.");
+        var data = ImmutableMap.of("name", "Piet", "numbers", new double[]{1.5, -2});
+        var output = new StringBuilder("> ");
+
+        template.render(data, output);
+        template.render(data, output);
+        assertEquals("> Hello Piet, 1.5,-2.0.Hello Piet, 1.5,-2.0.", output.toString());
+    }
+
+    @Test
+    public void renderToStringInsideRenderToString() {
+        var inner = parse("[{}]");
+        CustomTypeRenderer includer = (name, parts, model, scope, parentModel, parentScope, position, output) -> {
+            if (model instanceof Integer) {
+                output.append(inner.renderToString(model));
+                return true;
+            }
+            return false;
+        };
+        var outer = parse("{|{}|,}", new SoutConfiguration('{', '|', '}', '\\', null, includer, null));
+
+        assertEquals("[1],[2]", outer.renderToString(List.of(1, 2)));
+    }
+
+    @Test
+    public void customTypeRenderersThatDependOnlyOnClassAreAskedOncePerClass() {
+        var asked = new ArrayList<Object>();
+        var typeRenderer = new CustomTypeRenderer() {
+            @Override
+            public boolean render(String name, Renderable[] parts, Object model, Scope scope, Object parentModel, Scope parentScope, Position position, Writer outputWriter) throws IOException {
+                asked.add(model);
+                if (model instanceof Integer) {
+                    outputWriter.write("#" + model);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public boolean dependsOnlyOnClass() {
+                return true;
+            }
+        };
+        var template = parse("{values|{|{}}|,}", new SoutConfiguration('{', '|', '}', '\\', null, typeRenderer, null));
+        var values = List.of(List.of("a"), List.of("b"), List.of(1), List.of(2));
+
+        assertRendered("a,b,#1,#2", template, ImmutableMap.of("values", values));
+        assertRendered("a,b,#1,#2", template, ImmutableMap.of("values", values));
+        // The lists are only offered once, the simple values of every render are offered by name.
+        assertEquals(List.of(values, List.of("a"), "a", "b", 1, 2, "a", "b", 1, 2), asked);
+    }
+
+    @Test
+    public void customIteratorFactoriesThatDontDependOnlyOnClassAreAlwaysAsked() {
+        CustomIteratorFactory tooManyItems = (model, scope, position) ->
+                "many".equals(model) ? List.of("many", "more").iterator() : null;
+        var template = parse("{values|{|{}}|,}", new SoutConfiguration('{', '|', '}', '\\', null, null, tooManyItems));
+
+        assertRendered("few,manymore", template, ImmutableMap.of("values", List.of("few", "many")));
+    }
+
+    @Test
+    public void typeRenderersAreFoundThroughSuperclassesAndInterfaces() {
+        var configuration = defaultConfiguration();
+        configuration.setTypeRenderer(CharSequence.class, (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> {
+            outputWriter.write("chars");
+            return true;
+        });
+        configuration.setTypeRenderer(Number.class, (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> {
+            outputWriter.write("number");
+            return true;
+        });
+        configuration.setTypeRenderer(Integer.class, (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> {
+            outputWriter.write("int");
+            return true;
+        });
+        configuration.setTypeRenderer(Double.class, (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> false);
+        var template = parse("{|{}|,}", configuration);
+
+        assertRendered("chars,chars,number,int,1.5,true", template, List.of("a", new StringBuilder("b"), 3L, 4, 1.5, true));
+    }
+
+    @Test
+    public void customTypeRendererGoesBeforeTypeRenderers() {
+        CustomTypeRenderer nullRenderer = (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> {
+            if (model == null || "first".equals(model)) {
+                outputWriter.write("-");
+                return true;
+            }
+            return false;
+        };
+        var configuration = new SoutConfiguration('{', '|', '}', '\\', null, nullRenderer, null);
+        configuration.setTypeRenderer(String.class, (name, parts, model, scope, parentModel, parentScope, position, outputWriter) -> {
+            outputWriter.write("string");
+            return true;
+        });
+        var template = parse("{a} {b} {c}", configuration);
+
+        var data = new HashMap<String, Object>();
+        data.put("a", null);
+        data.put("b", "first");
+        data.put("c", "second");
+        assertRendered("- - string", template, data);
+    }
+
+    @Test
+    public void renderListenerIsToldWhatHappens() {
+        var events = new ArrayList<String>();
+        var listener = new RenderListener() {
+            @Override
+            public void rendered(SoutTemplate template, long nanoseconds, long characters, long bytes, long allocatedBytes) {
+                assertTrue(nanoseconds >= 0);
+                assertTrue(allocatedBytes >= -1);
+                events.add("rendered " + characters + " " + bytes);
+            }
+
+            @Override
+            public void looped(SoutTemplate template, Position position, long iterations) {
+                events.add("looped " + position + " " + iterations);
+            }
+
+            @Override
+            public void resolved(SoutTemplate template, Resolution resolution) {
+                events.add(resolution.name());
+            }
+        };
+        var configuration = defaultConfiguration();
+        configuration.setRenderListener(listener, true);
+        var template = parse("{name}: {people|{}|,}", configuration);
+        var data = ImmutableMap.of("name", "Piet", "people", List.of("Klaas", "Jan"));
+
+        template.renderToString(data);
+        template.render(data, new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+        var expectedEvents = List.of("MAP", "MAP", "looped 1:21 2");
+        assertEquals(concat(expectedEvents, List.of("rendered 15 -1"), expectedEvents, List.of("rendered -1 15")), events);
+    }
+
+    @SafeVarargs
+    private static List<String> concat(List<String>... lists) {
+        return Stream.of(lists).flatMap(List::stream).collect(toList());
+    }
+
+    @Test
+    public void flightRecorderGetsTemplateEvents(@TempDir Path tempDir) throws IOException {
+        var recordingFile = tempDir.resolve("sout.jfr");
+        try (var recording = new Recording()) {
+            recording.enable("com.laamella.sout.TemplateParse");
+            recording.enable("com.laamella.sout.TemplateRender");
+            recording.enable("com.laamella.sout.SlowName").withThreshold(Duration.ZERO);
+            recording.start();
+            var template = parse("Hello {name}!");
+            template.renderToString(ImmutableMap.of("name", "Piet"));
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        var events = RecordingFile.readAllEvents(recordingFile);
+        var parseEvent = eventNamed(events, "com.laamella.sout.TemplateParse");
+        assertEquals(13, parseEvent.getLong("characters"));
+        assertEquals(4, parseEvent.getInt("nodes"));
+        assertEquals(11, eventNamed(events, "com.laamella.sout.TemplateRender").getLong("characters"));
+        var slowNameEvent = eventNamed(events, "com.laamella.sout.SlowName");
+        assertEquals("name", slowNameEvent.getString("name"));
+        assertEquals("1:7", slowNameEvent.getString("position"));
+    }
+
+    private static RecordedEvent eventNamed(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    @Test
+    public void estimatedOutputSizeFollowsRenders() {
+        var template = parse("Hello {name}! {people|{}|, }");
+        assertEquals("Hello ! ".length(), template.estimatedOutputSize());
+
+        var longOutput = template.renderToString(ImmutableMap.of("name", "Piet", "people", List.of("Klaas", "Jan", "Henk")));
+        assertEquals(longOutput.length(), template.estimatedOutputSize());
+
+        for (int i = 0; i < 50; i++) {
+            render(template, ImmutableMap.of("name", "Piet", "people", List.of()));
+        }
+        assertEquals("Hello Piet! ".length(), template.estimatedOutputSize());
+    }
+
+    private SoutConfiguration defaultConfiguration() {
+        return new SoutConfiguration('{', '|', '}', '\\', null, null, null);
+    }
 
     private SoutTemplate parse(String template) {
         return parse(template, new SoutConfiguration('{', '|', '}', '\\', null, null, null));
@@ -278,8 +1098,12 @@ public class SoutTemplateTest {
     }
 
     private void assertRendered(String expected, SoutTemplate template, Object data) {
+        assertEquals(expected, render(template, data));
+    }
+
+    private String render(SoutTemplate template, Object data) {
         var output = new StringWriter();
         template.render(data, output);
-        assertEquals(expected, output.toString());
+        return output.toString();
     }
 }
\ No newline at end of file